@@ -0,0 +1,185 @@
+package com.bskup.solarnews;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Central list of every in memory cache in the app, so they can all be shrunk together
+ * when the system is short of memory. Each cache registers with a name and a priority and
+ * reports its size in bytes. On onTrimMemory the registry works out how much should be
+ * freed for that level and trims caches lowest priority first, so the stories on screen
+ * are the last thing to go. High priority caches are left alone while the app is visible.
+ * Caches decide for themselves whether trimming means dropping entries or spilling them
+ * to disk.
+ */
+
+public class CacheRegistry {
+
+    // Priorities, lower priority caches are trimmed first
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    // A cache that can report its size and shrink on request
+    public interface Trimmable {
+        // Approximate number of bytes the cache is holding
+        long getSizeBytes();
+
+        // Shrink to at most maxBytes, by dropping entries or spilling them to disk,
+        // and return the new size
+        long trimToSize(long maxBytes);
+    }
+
+    private static CacheRegistry sInstance;
+
+    // Get the process wide registry, creating it the first time
+    public static synchronized CacheRegistry getInstance() {
+        if (sInstance == null) {
+            sInstance = new CacheRegistry();
+        }
+        return sInstance;
+    }
+
+    // Registered caches, only touched while holding this object's lock
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    // Register a cache, replacing any cache already registered under the same name
+    public synchronized void register(String name, int priority, Trimmable cache) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i).mName.equals(name)) {
+                mEntries.remove(i);
+            }
+        }
+        mEntries.add(new Entry(name, priority, cache));
+    }
+
+    // Unregister a cache, caches owned by an activity must do this when it's destroyed.
+    // Goes by the cache rather than its name, so a destroyed activity can't unregister
+    // the cache its replacement has already registered under the same name.
+    public synchronized void unregister(Trimmable cache) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i).mCache == cache) {
+                mEntries.remove(i);
+            }
+        }
+    }
+
+    // Trim caches for a level from ComponentCallbacks2.onTrimMemory, returning bytes freed
+    public synchronized long onTrimMemory(int level) {
+        return trimToFraction(getTargetFraction(level), getHighestTrimmedPriority(level));
+    }
+
+    // Trim every cache completely, for onLowMemory, returning bytes freed
+    public synchronized long onLowMemory() {
+        return trimToFraction(0, PRIORITY_HIGH);
+    }
+
+    // Total bytes held by every registered cache
+    public synchronized long getTotalSizeBytes() {
+        long total = 0;
+        for (Entry entry : mEntries) {
+            total += entry.mCache.getSizeBytes();
+        }
+        return total;
+    }
+
+    // Bytes held by the named cache, or -1 if no cache has that name
+    public synchronized long getSizeBytes(String name) {
+        for (Entry entry : mEntries) {
+            if (entry.mName.equals(name)) {
+                return entry.mCache.getSizeBytes();
+            }
+        }
+        return -1;
+    }
+
+    // Footprint of each cache, for log messages
+    public synchronized String describe() {
+        StringBuilder description = new StringBuilder("total: ").append(getTotalSizeBytes()).append(" bytes");
+        for (Entry entry : mEntries) {
+            description.append(", ").append(entry.mName)
+                    .append(" (priority ").append(entry.mPriority).append("): ")
+                    .append(entry.mCache.getSizeBytes()).append(" bytes");
+        }
+        return description.toString();
+    }
+
+    // Fraction of the current total to keep for each trim level. While the app is visible,
+    // caches go down gradually as the system gets lower on memory. Once it's in the
+    // background, they go down further the closer the process is to being killed.
+    static double getTargetFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0.25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.5;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 0.75;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75;
+        }
+        return 1;
+    }
+
+    // Highest priority that may be trimmed at each level. High priority caches hold what's
+    // on screen, so they're only trimmed once the UI is hidden.
+    static int getHighestTrimmedPriority(int level) {
+        return level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN ? PRIORITY_HIGH : PRIORITY_NORMAL;
+    }
+
+    // Trim caches lowest priority first until the total is down to the given fraction,
+    // never touching caches above the given priority
+    private long trimToFraction(double fraction, int highestTrimmedPriority) {
+        long total = getTotalSizeBytes();
+        long excess = total - (long) (total * fraction);
+        if (excess <= 0) {
+            return 0;
+        }
+
+        // Lowest priority first, and the biggest first within a priority
+        List<Entry> entries = new ArrayList<>(mEntries);
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry first, Entry second) {
+                if (first.mPriority != second.mPriority) {
+                    return first.mPriority < second.mPriority ? -1 : 1;
+                }
+                long firstSize = first.mCache.getSizeBytes();
+                long secondSize = second.mCache.getSizeBytes();
+                return firstSize > secondSize ? -1 : (firstSize == secondSize ? 0 : 1);
+            }
+        });
+
+        long freed = 0;
+        for (Entry entry : entries) {
+            if (freed >= excess || entry.mPriority > highestTrimmedPriority) {
+                break;
+            }
+            long size = entry.mCache.getSizeBytes();
+            long newSize = entry.mCache.trimToSize(Math.max(0, size - (excess - freed)));
+            freed += size - newSize;
+        }
+        return freed;
+    }
+
+    private static class Entry {
+        final String mName;
+        final int mPriority;
+        final Trimmable mCache;
+
+        Entry(String name, int priority, Trimmable cache) {
+            mName = name;
+            mPriority = priority;
+            mCache = cache;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.bskup.solarnews;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Tracks where each run of same day stories starts in the list, so the adapter can insert
+ * a "day" header row above each run. Boundaries are worked out from primitive timestamps
+ * as stories are appended or prepended, only looking at the last or first group, rather
+ * than being recomputed over every story on each refresh.
+ */
+
+public class DayGroupIndex {
+
+    private static final long ONE_DAY_MILLIS = 24L * 60 * 60 * 1000;
+    // Starting size of the group arrays, they double when full
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final TimeZone mTimeZone;
+    // Index of the first item in each group, ascending
+    private int[] mGroupStarts = new int[INITIAL_CAPACITY];
+    // Day number of each group
+    private long[] mGroupDays = new long[INITIAL_CAPACITY];
+    private int mGroupCount;
+    // Number of items
+    private int mItemCount;
+
+    public DayGroupIndex() {
+        this(TimeZone.getDefault());
+    }
+
+    public DayGroupIndex(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    // Add an item to the end of the list
+    public void append(long timeMillis) {
+        long day = dayOf(timeMillis);
+        if (mGroupCount == 0 || mGroupDays[mGroupCount - 1] != day) {
+            ensureCapacity(mGroupCount + 1);
+            mGroupStarts[mGroupCount] = mItemCount;
+            mGroupDays[mGroupCount] = day;
+            mGroupCount++;
+        }
+        mItemCount++;
+    }
+
+    // Add an item to the start of the list. Every group moves along by one item, which is
+    // cheap since there's one group per day rather than one per item.
+    public void prepend(long timeMillis) {
+        long day = dayOf(timeMillis);
+        for (int group = 0; group < mGroupCount; group++) {
+            mGroupStarts[group]++;
+        }
+        if (mGroupCount == 0 || mGroupDays[0] != day) {
+            ensureCapacity(mGroupCount + 1);
+            System.arraycopy(mGroupStarts, 0, mGroupStarts, 1, mGroupCount);
+            System.arraycopy(mGroupDays, 0, mGroupDays, 1, mGroupCount);
+            mGroupDays[0] = day;
+            mGroupCount++;
+        }
+        // The first group always starts at the new first item
+        mGroupStarts[0] = 0;
+        mItemCount++;
+    }
+
+    // Forget every item
+    public void clear() {
+        mGroupCount = 0;
+        mItemCount = 0;
+    }
+
+    // Number of items, not counting headers
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    // Number of day groups, which is also the number of header rows
+    public int getGroupCount() {
+        return mGroupCount;
+    }
+
+    // Day number of a group, as days since the epoch in this index's time zone
+    public long getGroupDay(int group) {
+        return mGroupDays[group];
+    }
+
+    // Start of a group's day in milliseconds since the epoch, for formatting its header
+    public long getGroupDayStartMillis(int group) {
+        long utcStart = mGroupDays[group] * ONE_DAY_MILLIS;
+        return utcStart - mTimeZone.getOffset(utcStart);
+    }
+
+    // Position of a group's header row in the combined list of headers and items
+    public int getHeaderPosition(int group) {
+        return mGroupStarts[group] + group;
+    }
+
+    // Group that the given position in the combined list belongs to
+    public int getGroupForPosition(int position) {
+        int low = 0;
+        int high = mGroupCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getHeaderPosition(mid) <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Whether the given position in the combined list is a header row
+    public boolean isHeader(int position) {
+        return mGroupCount > 0 && getHeaderPosition(getGroupForPosition(position)) == position;
+    }
+
+    // Item index for a position in the combined list that isn't a header
+    public int getItemIndex(int position) {
+        return position - getGroupForPosition(position) - 1;
+    }
+
+    // Days since the epoch in this index's time zone, using integer maths only
+    private long dayOf(long timeMillis) {
+        long localMillis = timeMillis + mTimeZone.getOffset(timeMillis);
+        long day = localMillis / ONE_DAY_MILLIS;
+        // Round towards negative infinity for times before the epoch
+        if (localMillis % ONE_DAY_MILLIS < 0) {
+            day--;
+        }
+        return day;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mGroupStarts.length) {
+            int newCapacity = Math.max(capacity, mGroupStarts.length * 2);
+            mGroupStarts = Arrays.copyOf(mGroupStarts, newCapacity);
+            mGroupDays = Arrays.copyOf(mGroupDays, newCapacity);
+        }
+    }
+}
@@ -1,15 +1,16 @@
 package com.bskup.solarnews;
 
-import android.app.LoaderManager.LoaderCallbacks;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
@@ -17,6 +18,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -25,16 +27,20 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
-public class MainActivity extends AppCompatActivity implements LoaderCallbacks<List<NewsStory>> {
+public class MainActivity extends AppCompatActivity implements NewsPipeline.Callback {
 
     // Tag for log messages
     public static final String LOG_TAG = MainActivity.class.getName();
-    // Constant value for Loader ID
-    private static final int NEWS_STORY_LOADER_ID = 1;
-    // Constant request URL
-    private static final String GUARDIAN_REQUEST_URL = "http://content.guardianapis.com/search";
+    // Date range filter lengths in milliseconds
+    private static final long ONE_DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long ONE_WEEK_MILLIS = 7 * ONE_DAY_MILLIS;
+    private static final long ONE_MONTH_MILLIS = 30 * ONE_DAY_MILLIS;
+    // Keys for keeping the filter across configuration changes
+    private static final String STATE_SELECTED_SECTIONS = "selected_sections";
+    private static final String STATE_DATE_RANGE_MILLIS = "date_range_millis";
 
     // News story adapter
     private NewsStoryAdapter mAdapter;
@@ -48,6 +54,23 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
     private LinearLayout mEmptyStateLinearLayout;
     // List view
     private ListView mNewsStoryListView;
+    // Sticky day header shown over the top of the list, and its text
+    private View mStickyDayHeader;
+    private TextView mStickyDayHeaderTextView;
+    // Label currently in the sticky day header, labels are cached so comparing references is enough
+    private String mStickyDayLabel;
+    // Pipeline that fetches and parses news stories off the main thread
+    private NewsPipeline mNewsPipeline;
+    // Facet index over the stories in mAdapter, for filtering without a new request
+    private StoryFacetIndex mFacetIndex = new StoryFacetIndex();
+    // Sections the user chose to show, empty means all sections
+    private ArrayList<String> mSelectedSections = new ArrayList<>();
+    // How far back the date range filter reaches, 0 means any time
+    private long mDateRangeMillis = 0;
+    // Reused for filter results so toggling a filter doesn't allocate a new BitSet
+    private BitSet mFilterBits = new BitSet();
+    // Whether the stories were released from the list while in the background
+    private boolean mStoriesReleased = false;
 
 
     @Override
@@ -75,6 +98,28 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
 
         // Assign starting value to mAdapter
         mAdapter = new NewsStoryAdapter(this, new ArrayList<NewsStory>());
+        // Group stories under day headers, unless they're ordered by relevance
+        // where the days would be all mixed up
+        String orderBy = PreferenceManager.getDefaultSharedPreferences(this).getString(
+                getString(R.string.settings_order_by_key),
+                getString(R.string.settings_order_by_default));
+        mAdapter.setGroupByDay(!orderBy.equals(getString(R.string.settings_order_by_relevance_value)));
+        // Day labels are cheap to rebuild, so they're the first thing trimmed
+        CacheRegistry.getInstance().register(SolarNewsApplication.CACHE_DAY_LABELS, CacheRegistry.PRIORITY_LOW, mAdapter);
+
+        // Find the sticky day header and keep it showing the day at the top of the list
+        mStickyDayHeader = findViewById(R.id.sticky_day_header);
+        mStickyDayHeaderTextView = (TextView) mStickyDayHeader.findViewById(R.id.day_header_text_view);
+        mNewsStoryListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                updateStickyDayHeader(firstVisibleItem);
+            }
+        });
 
         // Find swipe refresh layout and set on refresh listener to handle swipe down refresh
         mSwipeRefreshLayout = (SwipeRefreshLayout) findViewById(R.id.swipe_refresh_layout);
@@ -84,20 +129,39 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
                 // Do stuff when user swipes down to refresh
                 Log.v(LOG_TAG, "onRefresh called from SwipeRefreshLayout");
 
-                restartNewsLoader();
+                refreshNewsStories();
             }
         });
 
-        // Check network connection before initializing loader which
-        // will attempt to connect to network to get Google Books data
+        // Put back the filter the user had before a configuration change, before the
+        // pipeline hands back the last result so it's filtered straight away
+        if (savedInstanceState != null) {
+            ArrayList<String> selectedSections = savedInstanceState.getStringArrayList(STATE_SELECTED_SECTIONS);
+            if (selectedSections != null) {
+                mSelectedSections = selectedSections;
+            }
+            mDateRangeMillis = savedInstanceState.getLong(STATE_DATE_RANGE_MILLIS, 0);
+        }
+
+        // Attach to the pipeline, which hands back the last result straight away
+        // if this activity is being recreated after a configuration change
+        mNewsPipeline = NewsPipeline.getInstance();
+        mNewsPipeline.setCallback(this);
+
+        // Check network connection before starting the pipeline which
+        // will attempt to connect to network to get Guardian data
         ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-        if (networkInfo != null && networkInfo.isConnected()) {
+        if (mNewsPipeline.isLoading()) {
+            // A load started before a configuration change is still running, keep animating
+            mSwipeRefreshLayout.setRefreshing(true);
+        } else if (mNewsPipeline.hasResult()) {
+            // Already showing the last result, nothing to load
+            Log.v(LOG_TAG, "reusing last pipeline result");
+        } else if (networkInfo != null && networkInfo.isConnected()) {
 
-            // Start a Loader
-            getLoaderManager().initLoader(NEWS_STORY_LOADER_ID, null, this);
-            // Temp log message
-            Log.v(LOG_TAG, "initLoader called, Network check OK, uriBuilder query string: " + getUriStringWithUpdatedPreferences());
+            // Start loading
+            startNewsPipeline();
         } else {
             // Display network error (hide loading indicator and change empty state text)
             mSwipeRefreshLayout.setRefreshing(false);
@@ -122,17 +186,17 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
         mEmptyStateTextView.setVisibility(View.GONE);
     }
 
-    @Override
-    public Loader<List<NewsStory>> onCreateLoader(int id, Bundle args) {
+    // Queue a foreground load on the pipeline
+    private void startNewsPipeline() {
+        String uriString = getUriStringWithUpdatedPreferences();
         // Temp log message
-        Log.v(LOG_TAG, "onCreateLoader called, uriBuilder query string: " + getUriStringWithUpdatedPreferences());
+        Log.v(LOG_TAG, "startNewsPipeline called, uriBuilder query string: " + uriString);
 
-        // Testing set refreshing true here so we can use this loading animation
+        // Set refreshing true here so we can use this loading animation
         // instead of a progress bar
         mSwipeRefreshLayout.setRefreshing(true);
 
-        // Note: When importing support loader manager instead, this was incompatible type
-        return new NewsStoryLoader(this, getUriStringWithUpdatedPreferences());
+        mNewsPipeline.loadNewsStories(uriString);
     }
 
     // Get Uri String with updated preferences
@@ -143,39 +207,60 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
                 getString(R.string.settings_page_size_key),
                 getString(R.string.settings_page_size_default));
 
+        // If adaptive page size is on, treat the user's page size as a cap and let
+        // the throughput estimator pick a size that will arrive quickly on this network
+        boolean adaptivePageSize = sharedPrefs.getBoolean(
+                getString(R.string.settings_adaptive_page_size_key), false);
+        if (adaptivePageSize) {
+            int pageSizeCap;
+            try {
+                pageSizeCap = (int) Double.parseDouble(pageSize);
+            } catch (NumberFormatException e) {
+                pageSizeCap = Integer.parseInt(getString(R.string.settings_page_size_default));
+            }
+            pageSize = String.valueOf(ThroughputEstimator.choosePageSize(pageSizeCap));
+            // Temp log message
+            Log.v(LOG_TAG, "adaptive page size chosen, " + ThroughputEstimator.describe());
+        }
+
         String orderBy = sharedPrefs.getString(
                 getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default)
         );
-        Uri baseUri = Uri.parse(GUARDIAN_REQUEST_URL);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
-
-        uriBuilder.appendQueryParameter("q", "solar");
-        uriBuilder.appendQueryParameter("page-size", pageSize);
-        uriBuilder.appendQueryParameter("order-by", orderBy);
-        uriBuilder.appendQueryParameter("api-key", "test");
-
-        return uriBuilder.toString();
+        return GuardianQuery.buildSearchUrl(pageSize, orderBy);
     }
 
     @Override
-    public void onLoadFinished(Loader<List<NewsStory>> loader, List<NewsStory> newsStoryList) {
+    public void onNewsStoriesLoaded(List<NewsStory> newsStoryList) {
         // Temp log message
-        Log.v(LOG_TAG, "onLoadFinished called");
+        Log.v(LOG_TAG, "onNewsStoriesLoaded called, " + mNewsPipeline.describe());
 
         // Set swipeRefreshLayout refreshing animation to false
         mSwipeRefreshLayout.setRefreshing(false);
 
-        // Clear adapter data
+        // No result at all means the load never finished, e.g. the pipeline was too busy to
+        // take it. Keep showing any stories already listed rather than clearing them.
+        if (newsStoryList == null) {
+            if (mAdapter.isEmpty()) {
+                mEmptyStateTextView.setText(R.string.load_failed);
+                mEmptyStateImageView.setImageResource(R.drawable.ic_sad_face);
+                showEmptyStateLayout();
+            } else {
+                Toast.makeText(this, R.string.load_failed, Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+
+        // Clear adapter data and the facet index that mirrors it
         mAdapter.clear();
+        mFacetIndex.clear();
 
-        // Do same thing we did in onPostExecute before switching to Loaders
         // If there's no result, do nothing and inform user
-        if (newsStoryList != null && !newsStoryList.isEmpty()) {
+        if (!newsStoryList.isEmpty()) {
             hideEmptyStateLayout();
             mNewsStoryListView.setVisibility(View.VISIBLE);
             updateUi(newsStoryList);
-        } else if (newsStoryList != null && newsStoryList.isEmpty()){
+        } else {
             // Set empty state text view and image view to indicate no results
             mEmptyStateTextView.setText(R.string.no_results_found);
             mEmptyStateImageView.setImageResource(R.drawable.ic_sad_face);
@@ -184,20 +269,62 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
     }
 
     @Override
-    public void onLoaderReset(Loader<List<NewsStory>> loader) {
-        // Temp log message
-        Log.v(LOG_TAG, "onLoaderReset called");
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // Keep the filter, the pipeline keeps the stories themselves
+        outState.putStringArrayList(STATE_SELECTED_SECTIONS, mSelectedSections);
+        outState.putLong(STATE_DATE_RANGE_MILLIS, mDateRangeMillis);
+    }
 
-        // Clear out existing News data
-        mAdapter.clear();
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Once in the background, let go of the list's stories as well, so the only copy left
+        // is the pipeline's, which CacheRegistry can spill to disk. They come back in onStart.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND && !mAdapter.isEmpty()) {
+            mAdapter.clear();
+            mFacetIndex.clear();
+            mStoriesReleased = true;
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Put back any stories released in the background, reading them from disk if needed
+        if (mStoriesReleased) {
+            mStoriesReleased = false;
+            if (mNewsPipeline.hasResult() || mNewsPipeline.isLoading()) {
+                mNewsPipeline.setCallback(this);
+                // Reading spilled stories back counts as loading, so show the animation
+                mSwipeRefreshLayout.setRefreshing(mNewsPipeline.isLoading());
+            } else {
+                // Nothing left to put back, load again rather than leave the list blank
+                refreshNewsStories();
+            }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Stop receiving results, the recreated activity will attach itself
+        mNewsPipeline.clearCallback(this);
+        // The recreated activity registers its own adapter
+        CacheRegistry.getInstance().unregister(mAdapter);
+        // If the user is leaving rather than rotating, the next launch should load fresh stories
+        if (isFinishing()) {
+            mNewsPipeline.clearResult();
+        }
     }
 
     // Update the UI with the given NewsStory information
-    private void updateUi(final List<NewsStory> newsStoryList) {
+    private void updateUi(List<NewsStory> newsStoryList) {
 
-        // Add data in newsStoryList to our adapter
+        // Add data in newsStoryList to our adapter, and index it for filtering
         // Note: Comment this out to test empty state
         mAdapter.addAll(newsStoryList);
+        mFacetIndex.addStories(newsStoryList);
 
         // Find the ListView
         mNewsStoryListView = (ListView) findViewById(R.id.list);
@@ -205,13 +332,16 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
         // Set the adapter on the ListView
         // so the list can be populated in the ui
         mNewsStoryListView.setAdapter(mAdapter);
+        // Keep whatever filter the user had before this load
+        applyFilter();
         // Make list view items do stuff when clicked
         mNewsStoryListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 // Do this stuff when list view item clicked
-                // Get current NewsStory object
-                NewsStory currentNewsStory = newsStoryList.get(position);
+                // Get current NewsStory object, going through the adapter
+                // since the list may be filtered
+                NewsStory currentNewsStory = mAdapter.getItem(position);
 
                 // Get web url from current news story
                 String currentNewsStoryWebUrl = currentNewsStory.getWebUrl();
@@ -228,10 +358,90 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
         });
     }
 
-    // Restart the loader
-    public void restartNewsLoader() {
+    // Show the day of the row at the top of the list in the sticky header
+    private void updateStickyDayHeader(int firstVisibleItem) {
+        String dayLabel = null;
+        if (mNewsStoryListView.getVisibility() == View.VISIBLE && firstVisibleItem < mAdapter.getCount()) {
+            dayLabel = mAdapter.getDayLabel(firstVisibleItem);
+        }
+        if (dayLabel == mStickyDayLabel) {
+            return;
+        }
+        mStickyDayLabel = dayLabel;
+        if (dayLabel == null) {
+            mStickyDayHeader.setVisibility(View.GONE);
+        } else {
+            mStickyDayHeaderTextView.setText(dayLabel);
+            mStickyDayHeader.setVisibility(View.VISIBLE);
+        }
+    }
+
+    // Filter the adapter using the facet index and the current section and date choices
+    private void applyFilter() {
+        if (mSelectedSections.isEmpty() && mDateRangeMillis == 0) {
+            mAdapter.setFilter(null);
+        } else {
+            long fromTimeMillis = mDateRangeMillis == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - mDateRangeMillis;
+            mAdapter.setFilter(mFacetIndex.filter(mSelectedSections, fromTimeMillis, Long.MAX_VALUE, mFilterBits));
+        }
+
+        // Only touch the empty state if there are stories, otherwise it's showing something else
+        if (mFacetIndex.size() > 0) {
+            if (mAdapter.isEmpty()) {
+                mEmptyStateTextView.setText(R.string.no_filter_matches);
+                mEmptyStateImageView.setImageResource(R.drawable.ic_sad_face);
+                showEmptyStateLayout();
+            } else {
+                hideEmptyStateLayout();
+            }
+        }
+    }
+
+    // Show a dialog to pick which sections to show
+    private void showSectionFilterDialog() {
+        final List<String> sectionNames = mFacetIndex.getSectionNames();
+        final String[] sectionLabels = new String[sectionNames.size()];
+        final boolean[] checkedSections = new boolean[sectionNames.size()];
+        for (int i = 0; i < sectionNames.size(); i++) {
+            String sectionName = sectionNames.get(i);
+            sectionLabels[i] = sectionName.isEmpty() ? getString(R.string.no_section_listed) : sectionName;
+            checkedSections[i] = mSelectedSections.contains(sectionName);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.filter_sections_title)
+                .setMultiChoiceItems(sectionLabels, checkedSections, new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                        checkedSections[which] = isChecked;
+                    }
+                })
+                .setPositiveButton(R.string.filter_apply, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mSelectedSections.clear();
+                        for (int i = 0; i < checkedSections.length; i++) {
+                            if (checkedSections[i]) {
+                                mSelectedSections.add(sectionNames.get(i));
+                            }
+                        }
+                        applyFilter();
+                    }
+                })
+                .setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mSelectedSections.clear();
+                        applyFilter();
+                    }
+                })
+                .show();
+    }
+
+    // Load fresh news stories
+    public void refreshNewsStories() {
 
-        // Check network connection before initializing loader which
+        // Check network connection before starting the pipeline which
         // will attempt to connect to network to get Guardian data
         ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
@@ -240,16 +450,15 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
             // Hide empty state views first
             mEmptyStateTextView.setVisibility(View.GONE);
             mEmptyStateImageView.setVisibility(View.GONE);
-            // Restart Loader
-            getLoaderManager().restartLoader(NEWS_STORY_LOADER_ID, null, this);
-            // Play the refreshing animation since we'll be attempting to fetch data
-            mSwipeRefreshLayout.setRefreshing(true);
+            // Start a foreground load, which also plays the refreshing animation
+            startNewsPipeline();
             // Temp log message
-            Log.v(LOG_TAG, "restartLoader called from restartNewsLoader");
+            Log.v(LOG_TAG, "startNewsPipeline called from refreshNewsStories");
 
         } else {
             // Display network error (hide refreshing indicator and change empty state text)
             mNewsStoryListView.setVisibility(View.GONE);
+            updateStickyDayHeader(0);
             mSwipeRefreshLayout.setRefreshing(false);
             mEmptyStateLinearLayout.setVisibility(View.VISIBLE);
             mEmptyStateTextView.setVisibility(View.VISIBLE);
@@ -263,6 +472,8 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        // Check the date range item matching the current filter, which may have been restored
+        menu.findItem(getDateRangeMenuItemId()).setChecked(true);
         return true;
     }
 
@@ -273,10 +484,40 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
             Intent settingsIntent = new Intent(this, SettingsActivity.class);
             startActivity(settingsIntent);
             return true;
+        } else if (id == R.id.action_filter_sections) {
+            showSectionFilterDialog();
+            return true;
+        } else if (id == R.id.action_filter_any_time || id == R.id.action_filter_past_day
+                || id == R.id.action_filter_past_week || id == R.id.action_filter_past_month) {
+            // Date range items are a single choice group, so check the one picked
+            item.setChecked(true);
+            if (id == R.id.action_filter_past_day) {
+                mDateRangeMillis = ONE_DAY_MILLIS;
+            } else if (id == R.id.action_filter_past_week) {
+                mDateRangeMillis = ONE_WEEK_MILLIS;
+            } else if (id == R.id.action_filter_past_month) {
+                mDateRangeMillis = ONE_MONTH_MILLIS;
+            } else {
+                mDateRangeMillis = 0;
+            }
+            applyFilter();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    // Id of the date range menu item for the current date range filter
+    private int getDateRangeMenuItemId() {
+        if (mDateRangeMillis == ONE_DAY_MILLIS) {
+            return R.id.action_filter_past_day;
+        } else if (mDateRangeMillis == ONE_WEEK_MILLIS) {
+            return R.id.action_filter_past_week;
+        } else if (mDateRangeMillis == ONE_MONTH_MILLIS) {
+            return R.id.action_filter_past_month;
+        }
+        return R.id.action_filter_any_time;
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -284,7 +525,7 @@ public class MainActivity extends AppCompatActivity implements LoaderCallbacks<L
         Log.v(LOG_TAG, "NewsPrefFragment.mPreferencesChanged: " + SettingsActivity.NewsPreferenceFragment.mPreferencesChanged);
         if (SettingsActivity.NewsPreferenceFragment.mPreferencesChanged != null) {
             if (SettingsActivity.NewsPreferenceFragment.mPreferencesChanged) {
-                restartNewsLoader();
+                refreshNewsStories();
                 recreate();
                 Log.v(LOG_TAG, "recreate() called from onResume, setting mPreferencesChanged to false");
                 SettingsActivity.NewsPreferenceFragment.mPreferencesChanged = false;
@@ -0,0 +1,547 @@
+package com.bskup.solarnews;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads news stories in stages: the HTTP request runs on a small network executor, then
+ * JSON parsing, formatting and near duplicate collapsing run on a separate CPU executor,
+ * and the result is posted back to the main thread. Each executor has a bounded priority
+ * queue so a foreground refresh jumps ahead of queued background work.
+ *
+ * Loads feed the UI: the newest one becomes the last result and goes to the attached
+ * callback, and older ones still queued are dropped. Housekeeping like spilling the last
+ * result to disk runs in the background lane, behind any load.
+ *
+ * There's one pipeline per process, so an activity recreated after a configuration change
+ * just reattaches its callback and picks up the last result or the load still in flight.
+ * The last result is registered with CacheRegistry, and spills to disk when trimmed.
+ * Spilling, reading back and deleting the spill file all run on the CPU stage rather than
+ * the main thread, one at a time, since the CPU stage has several threads.
+ */
+
+public class NewsPipeline implements CacheRegistry.Trimmable {
+
+    // Tag for log messages
+    private static final String LOG_TAG = NewsPipeline.class.getName();
+
+    // Priority lanes, lower values run first
+    public static final int PRIORITY_FOREGROUND = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    // Name of the file the last result spills to under memory pressure
+    private static final String SPILL_FILE_NAME = "last_story_list.bin";
+
+    // Thread and queue limits for each stage
+    private static final int NETWORK_THREADS = 2;
+    private static final int NETWORK_QUEUE_CAPACITY = 8;
+    private static final int CPU_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    private static final int CPU_QUEUE_CAPACITY = 16;
+
+    // Callback for delivering loaded stories on the main thread, or null if a load couldn't
+    // run at all, e.g. a full queue turned it away
+    public interface Callback {
+        void onNewsStoriesLoaded(List<NewsStory> newsStoryList);
+    }
+
+    private static NewsPipeline sInstance;
+
+    // Get the process wide pipeline, creating it the first time
+    public static synchronized NewsPipeline getInstance() {
+        if (sInstance == null) {
+            sInstance = new NewsPipeline();
+        }
+        return sInstance;
+    }
+
+    private final Stage mNetworkStage = new Stage("network", NETWORK_THREADS, NETWORK_QUEUE_CAPACITY,
+            backgroundThreadFactory("network"));
+    private final Stage mCpuStage = new Stage("cpu", CPU_THREADS, CPU_QUEUE_CAPACITY,
+            backgroundThreadFactory("cpu"));
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger mRequestIds = new AtomicInteger();
+    private final RequestTracker mRequestTracker = new RequestTracker();
+    // Folds near duplicate stories together after parsing, its index lasts across loads
+    private final NearDuplicateCollapser mNearDuplicateCollapser = new NearDuplicateCollapser();
+    // Held while the spill file is written, read or deleted
+    private final Object mSpillLock = new Object();
+    // Stories the spill file should hold, or null once they've been replaced. Set on the
+    // main thread and checked under mSpillLock, so a spill that runs after a newer one was
+    // asked for doesn't overwrite it.
+    private volatile List<NewsStory> mSpillWanted;
+
+    // Everything below is only touched on the main thread
+    private Callback mCallback;
+    private boolean mLoading;
+    private List<NewsStory> mLastResult;
+    private long mLastResultSizeBytes;
+    // Url of the last foreground load, so it can be loaded again if a spilled result is lost
+    private String mLastUrl;
+    // Where the last result spills to, and whether it's currently there rather than in memory
+    private File mSpillFile;
+    private boolean mResultSpilled;
+    // Result currently being written to the spill file, or null
+    private List<NewsStory> mSpillingResult;
+
+    private NewsPipeline() {
+    }
+
+    // Set the directory the last result can spill to when memory is short
+    public void setSpillDirectory(File directory) {
+        mSpillFile = new File(directory, SPILL_FILE_NAME);
+    }
+
+    // Attach the callback that should receive results. If a result has already arrived,
+    // it's delivered straight away so a recreated activity can show it without reloading.
+    // A result that was spilled to disk is read back first and delivered once it's in memory.
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+        if (mCallback == null || mLoading) {
+            return;
+        }
+        if (mLastResult != null) {
+            mCallback.onNewsStoriesLoaded(mLastResult);
+        } else if (mResultSpilled) {
+            restoreSpilledResult();
+        }
+    }
+
+    // Detach the callback, but only if it's still the one attached
+    public void clearCallback(Callback callback) {
+        if (mCallback == callback) {
+            mCallback = null;
+        }
+    }
+
+    // Forget the last result, so the next activity to attach starts a fresh load
+    public void clearResult() {
+        setLastResult(null);
+    }
+
+    // Get the near duplicate collapser, so its index can be registered as a cache
+    public NearDuplicateCollapser getNearDuplicateCollapser() {
+        return mNearDuplicateCollapser;
+    }
+
+    // Whether a foreground load is currently queued or running
+    public boolean isLoading() {
+        return mLoading;
+    }
+
+    // Whether any load has finished yet
+    public boolean hasResult() {
+        return mLastResult != null || mResultSpilled;
+    }
+
+    @Override
+    public long getSizeBytes() {
+        return mLastResultSizeBytes;
+    }
+
+    // The last result is all or nothing, so any trim below its size spills it to disk.
+    // The write happens on the CPU stage, so the memory is only freed once it has finished
+    // and the size returned here is still the full size.
+    @Override
+    public long trimToSize(long maxBytes) {
+        if (mLastResult == null || mLastResultSizeBytes <= maxBytes) {
+            return mLastResultSizeBytes;
+        }
+        if (mSpillFile == null) {
+            // Nowhere to spill to, keep the stories rather than lose them
+            return mLastResultSizeBytes;
+        }
+        if (mSpillingResult != mLastResult) {
+            spillLastResult();
+        }
+        return mLastResultSizeBytes;
+    }
+
+    // Write the last result to the spill file in the background, and only let go of the
+    // in memory copy once the write has succeeded
+    private void spillLastResult() {
+        final List<NewsStory> newsStoryList = mLastResult;
+        final File spillFile = mSpillFile;
+        mSpillingResult = newsStoryList;
+        mSpillWanted = newsStoryList;
+        boolean accepted = mCpuStage.execute(new StageTask(PRIORITY_BACKGROUND, 0) {
+            @Override
+            void doWork() {
+                boolean written = false;
+                synchronized (mSpillLock) {
+                    // Skip it if newer stories have been asked for, so they aren't overwritten
+                    if (mSpillWanted == newsStoryList) {
+                        try {
+                            StoryListFile.write(spillFile, newsStoryList);
+                            written = true;
+                        } catch (IOException e) {
+                            Log.e(LOG_TAG, "Problem spilling last result to disk, keeping it in memory", e);
+                        }
+                    }
+                }
+                final boolean spilled = written;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mSpillingResult == newsStoryList) {
+                            mSpillingResult = null;
+                        }
+                        // A newer load may have replaced the stories while they were being written
+                        if (spilled && mLastResult == newsStoryList) {
+                            mLastResult = null;
+                            mLastResultSizeBytes = 0;
+                            mResultSpilled = true;
+                        }
+                    }
+                });
+            }
+        });
+        if (!accepted) {
+            mSpillingResult = null;
+        }
+    }
+
+    // Replace the last result in memory, forgetting any copy spilled to disk
+    private void setLastResult(List<NewsStory> newsStoryList) {
+        mSpillWanted = null;
+        mLastResult = newsStoryList;
+        mLastResultSizeBytes = 0;
+        if (newsStoryList != null) {
+            for (NewsStory newsStory : newsStoryList) {
+                mLastResultSizeBytes += newsStory.estimateSizeBytes();
+            }
+        }
+        if (mResultSpilled) {
+            mResultSpilled = false;
+            deleteSpillFile();
+        }
+    }
+
+    // Delete the spill file in the background, unless another result has been spilled since.
+    // If the queue is full the file is just left behind, it's only read when mResultSpilled
+    // says it holds the last result.
+    private void deleteSpillFile() {
+        final File spillFile = mSpillFile;
+        mCpuStage.execute(new StageTask(PRIORITY_BACKGROUND, 0) {
+            @Override
+            void doWork() {
+                synchronized (mSpillLock) {
+                    if (mSpillWanted == null && spillFile.exists() && !spillFile.delete()) {
+                        Log.e(LOG_TAG, "Problem deleting spilled result");
+                    }
+                }
+            }
+        });
+    }
+
+    // Read the spilled result back on the CPU stage, as a foreground request so a newer load
+    // supersedes it. If it can't be read, the last url is loaded again instead.
+    private void restoreSpilledResult() {
+        final int requestId = mRequestIds.incrementAndGet();
+        mRequestTracker.onStarted(PRIORITY_FOREGROUND, requestId);
+        mLoading = true;
+        final long startTime = SystemClock.elapsedRealtime();
+        final File spillFile = mSpillFile;
+        boolean accepted = mCpuStage.execute(new StageTask(PRIORITY_FOREGROUND, requestId) {
+            @Override
+            void doWork() {
+                try {
+                    List<NewsStory> newsStoryList;
+                    synchronized (mSpillLock) {
+                        newsStoryList = StoryListFile.read(spillFile);
+                    }
+                    postResult(requestId, newsStoryList, startTime);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem reading spilled result, it will be loaded again", e);
+                    postSpilledResultLost(requestId);
+                }
+            }
+        });
+        if (!accepted) {
+            postSpilledResultLost(requestId);
+        }
+    }
+
+    // Forget a spilled result that couldn't be read back, and load the stories again
+    private void postSpilledResultLost(final int requestId) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRequestTracker.isStale(PRIORITY_FOREGROUND, requestId)) {
+                    return;
+                }
+                setLastResult(null);
+                if (mLastUrl != null) {
+                    loadNewsStories(mLastUrl);
+                } else {
+                    mLoading = false;
+                    if (mCallback != null) {
+                        mCallback.onNewsStoriesLoaded(null);
+                    }
+                }
+            }
+        });
+    }
+
+    // Start a foreground load from the given url. Its result becomes the last result and goes
+    // to the attached callback. Any older foreground load still queued is dropped, since its
+    // result would be thrown away anyway.
+    public void loadNewsStories(String url) {
+        mLastUrl = url;
+        int requestId = mRequestIds.incrementAndGet();
+        mRequestTracker.onStarted(PRIORITY_FOREGROUND, requestId);
+        mLoading = true;
+        mNetworkStage.removeQueuedBefore(PRIORITY_FOREGROUND, requestId);
+        mCpuStage.removeQueuedBefore(PRIORITY_FOREGROUND, requestId);
+        startLoad(url, requestId);
+    }
+
+    private void startLoad(final String url, final int requestId) {
+        final long startTime = SystemClock.elapsedRealtime();
+        boolean accepted = mNetworkStage.execute(new StageTask(PRIORITY_FOREGROUND, requestId) {
+            @Override
+            void doWork() {
+                final String jsonResponse = QueryUtils.fetchNewsJson(url);
+                boolean parseAccepted = mCpuStage.execute(new StageTask(PRIORITY_FOREGROUND, requestId) {
+                    @Override
+                    void doWork() {
+                        // Parse, then collapse near duplicates like live blog updates into one story each
+                        List<NewsStory> newsStoryList = QueryUtils.processNewsJson(jsonResponse, mNearDuplicateCollapser);
+                        postResult(requestId, newsStoryList, startTime);
+                    }
+                });
+                if (!parseAccepted) {
+                    Log.e(LOG_TAG, "cpu queue full, rejecting request " + requestId);
+                    postResult(requestId, null, startTime);
+                }
+            }
+        });
+        if (!accepted) {
+            Log.e(LOG_TAG, "network queue full, rejecting request " + requestId);
+            postResult(requestId, null, startTime);
+        }
+    }
+
+    // Hand a result over to the main thread, dropping it if a newer load has started since
+    private void postResult(final int requestId, final List<NewsStory> newsStoryList, final long startTime) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRequestTracker.isStale(PRIORITY_FOREGROUND, requestId)) {
+                    // Temp log message
+                    Log.v(LOG_TAG, "dropping stale result for request " + requestId);
+                    return;
+                }
+                // Temp log message
+                Log.v(LOG_TAG, "request " + requestId + " finished in "
+                        + (SystemClock.elapsedRealtime() - startTime) + "ms, " + describe());
+                mLoading = false;
+                if (newsStoryList != null) {
+                    setLastResult(newsStoryList);
+                }
+                if (mCallback != null) {
+                    mCallback.onNewsStoriesLoaded(newsStoryList);
+                }
+            }
+        });
+    }
+
+    // Getters for observing the stages
+    public int getNetworkQueueDepth() { return mNetworkStage.getQueueDepth(); }
+
+    public int getCpuQueueDepth() { return mCpuStage.getQueueDepth(); }
+
+    public double getNetworkAverageWaitMs() { return mNetworkStage.getAverageWaitMs(); }
+
+    public double getNetworkAverageRunMs() { return mNetworkStage.getAverageRunMs(); }
+
+    public double getCpuAverageWaitMs() { return mCpuStage.getAverageWaitMs(); }
+
+    public double getCpuAverageRunMs() { return mCpuStage.getAverageRunMs(); }
+
+    // One line summary of both stages, for log messages
+    public String describe() {
+        return mNetworkStage.describe() + "; " + mCpuStage.describe();
+    }
+
+    // Worker threads for a stage, run at background priority so they don't hold up the UI
+    private static ThreadFactory backgroundThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "NewsPipeline-" + name + "-" + mThreadCount.incrementAndGet());
+            }
+        };
+    }
+
+    // Keeps track of which results are still wanted. A foreground result is stale once a
+    // newer foreground load has started. Background loads never make a foreground result
+    // stale, and are never stale themselves since each one has its own callback.
+    // Only touched on the main thread.
+    static class RequestTracker {
+        private int mLatestForegroundRequestId;
+
+        void onStarted(int priority, int requestId) {
+            if (priority == PRIORITY_FOREGROUND) {
+                mLatestForegroundRequestId = requestId;
+            }
+        }
+
+        boolean isStale(int priority, int requestId) {
+            return priority == PRIORITY_FOREGROUND && requestId != mLatestForegroundRequestId;
+        }
+    }
+
+    // A unit of work for one stage, ordered by priority lane and then by submission order
+    abstract static class StageTask implements Runnable, Comparable<StageTask> {
+
+        private static final AtomicLong sSequence = new AtomicLong();
+
+        final int mPriority;
+        final int mRequestId;
+        final long mSequence = sSequence.incrementAndGet();
+        Stage mStage;
+        long mEnqueuedAt;
+
+        StageTask(int priority, int requestId) {
+            mPriority = priority;
+            mRequestId = requestId;
+        }
+
+        abstract void doWork();
+
+        @Override
+        public void run() {
+            long startedAt = elapsedMillis();
+            try {
+                doWork();
+            } finally {
+                mStage.recordTiming(startedAt - mEnqueuedAt, elapsedMillis() - startedAt);
+            }
+        }
+
+        @Override
+        public int compareTo(StageTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    // One executor with a bounded priority queue and running latency averages. Plain
+    // java.util.concurrent, so it can be tested on the JVM.
+    static class Stage {
+
+        // Weight given to each new sample in the latency averages
+        private static final double SMOOTHING_FACTOR = 0.3;
+
+        private final String mName;
+        private final int mCapacity;
+        private final ThreadPoolExecutor mExecutor;
+        private double mAverageWaitMs;
+        private double mAverageRunMs;
+        private long mCompletedCount;
+
+        Stage(String name, int threads, int capacity, ThreadFactory threadFactory) {
+            mName = name;
+            mCapacity = capacity;
+            // PriorityBlockingQueue is unbounded, so the capacity is enforced in execute()
+            mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(capacity), threadFactory);
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        // Queue a task, returning false if it was rejected because the queue is full.
+        // A full queue makes room for foreground work by dropping queued background work.
+        synchronized boolean execute(StageTask task) {
+            BlockingQueue<Runnable> queue = mExecutor.getQueue();
+            if (queue.size() >= mCapacity
+                    && (task.mPriority != PRIORITY_FOREGROUND || !removeOneBackgroundTask(queue))) {
+                return false;
+            }
+            task.mStage = this;
+            task.mEnqueuedAt = elapsedMillis();
+            mExecutor.execute(task);
+            return true;
+        }
+
+        // Drop queued tasks in the given lane that belong to requests older than the given one
+        synchronized void removeQueuedBefore(int priority, int requestId) {
+            Iterator<Runnable> iterator = mExecutor.getQueue().iterator();
+            while (iterator.hasNext()) {
+                StageTask task = (StageTask) iterator.next();
+                if (task.mPriority == priority && task.mRequestId < requestId) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        // Drop the newest queued background task, since it has waited the least
+        private boolean removeOneBackgroundTask(BlockingQueue<Runnable> queue) {
+            StageTask newest = null;
+            for (Runnable runnable : queue) {
+                StageTask task = (StageTask) runnable;
+                if (task.mPriority != PRIORITY_FOREGROUND && (newest == null || task.mSequence > newest.mSequence)) {
+                    newest = task;
+                }
+            }
+            return newest != null && queue.remove(newest);
+        }
+
+        synchronized void recordTiming(long waitMs, long runMs) {
+            if (mCompletedCount == 0) {
+                mAverageWaitMs = waitMs;
+                mAverageRunMs = runMs;
+            } else {
+                mAverageWaitMs += SMOOTHING_FACTOR * (waitMs - mAverageWaitMs);
+                mAverageRunMs += SMOOTHING_FACTOR * (runMs - mAverageRunMs);
+            }
+            mCompletedCount++;
+        }
+
+        int getQueueDepth() { return mExecutor.getQueue().size(); }
+
+        synchronized double getAverageWaitMs() { return mAverageWaitMs; }
+
+        synchronized double getAverageRunMs() { return mAverageRunMs; }
+
+        synchronized long getCompletedCount() { return mCompletedCount; }
+
+        synchronized String describe() {
+            return mName + " queued: " + getQueueDepth()
+                    + ", active: " + mExecutor.getActiveCount()
+                    + ", completed: " + mCompletedCount
+                    + ", avg wait: " + Math.round(mAverageWaitMs) + "ms"
+                    + ", avg run: " + Math.round(mAverageRunMs) + "ms";
+        }
+    }
+
+    // Monotonic time in milliseconds for stage timings. Uses System.nanoTime rather than
+    // SystemClock so stages can be tested on the JVM.
+    private static long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -2,20 +2,59 @@ package com.bskup.solarnews;
 
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 
-public class NewsStoryAdapter extends ArrayAdapter<NewsStory> {
+public class NewsStoryAdapter extends ArrayAdapter<NewsStory> implements CacheRegistry.Trimmable {
+
+    // Rough heap size of one cached day label and its key
+    private static final long DAY_LABEL_SIZE_BYTES = 120;
+
+    // View types, so ListView recycles header rows and story rows separately
+    private static final int VIEW_TYPE_STORY = 0;
+    private static final int VIEW_TYPE_DAY_HEADER = 1;
 
     private Context mContext;
+    // Positions in the full list that pass the current filter, or null when unfiltered
+    private int[] mFilteredPositions;
+    // Number of valid entries in mFilteredPositions
+    private int mFilteredCount;
+    // Whether to show a header row above each day's stories
+    private boolean mGroupByDay;
+    // Day boundaries over the visible stories, kept up to date as stories are appended or
+    // prepended and rebuilt when they're removed or reordered
+    private DayGroupIndex mDayGroups = new DayGroupIndex();
+    // Header labels by day number, so each day is only formatted once
+    private LongSparseArray<String> mDayLabels = new LongSparseArray<>();
+    // Date format for day header labels
+    private SimpleDateFormat mDayLabelFormat = new SimpleDateFormat("EEEE, MMMM d", Locale.US);
+    // Date and time formats for rows. Only the rows being bound are formatted, and rows
+    // under a day header leave the date to the header.
+    private SimpleDateFormat mRowDateFormat = new SimpleDateFormat("MMMM dd, yyyy", Locale.US);
+    private SimpleDateFormat mRowTimeFormat = new SimpleDateFormat("h:mma", Locale.US);
+    // Reused by getView for the story being formatted
+    private Date mRowDate = new Date();
+    // Web urls of stories whose collapsed similar stories are expanded
+    private Set<String> mExpandedStoryUrls = new HashSet<>();
 
     // Because we are extending ArrayAdapter, our constructor was expected to match
     // one of the formats of the constructors for ArrayAdapter which all include
@@ -26,12 +65,239 @@ public class NewsStoryAdapter extends ArrayAdapter<NewsStory> {
     public NewsStoryAdapter(Context context, List<NewsStory> newsStoryList) {
         super(context, 0, newsStoryList);
         mContext = context;
+        rebuildDayGroups();
+    }
+
+    // Show only the stories whose positions are set in the given BitSet, or every story if
+    // it's null. Only the positions are copied, the underlying list is left alone.
+    public void setFilter(BitSet visiblePositions) {
+        if (visiblePositions == null) {
+            if (mFilteredPositions == null) {
+                // Already showing every story, and appends have kept the day boundaries
+                // up to date, so there's nothing to redo
+                return;
+            }
+            mFilteredPositions = null;
+            mFilteredCount = 0;
+        } else {
+            int count = visiblePositions.cardinality();
+            if (mFilteredPositions == null || mFilteredPositions.length < count) {
+                mFilteredPositions = new int[Math.max(count, super.getCount())];
+            }
+            int i = 0;
+            for (int position = visiblePositions.nextSetBit(0); position >= 0;
+                 position = visiblePositions.nextSetBit(position + 1)) {
+                mFilteredPositions[i++] = position;
+            }
+            mFilteredCount = count;
+        }
+        // The visible stories changed, so the day boundaries have to be found again
+        rebuildDayGroups();
+        notifyDataSetChanged();
+    }
+
+    // Turn day header rows on or off
+    public void setGroupByDay(boolean groupByDay) {
+        if (mGroupByDay != groupByDay) {
+            mGroupByDay = groupByDay;
+            notifyDataSetChanged();
+        }
+    }
+
+    // Clearing the stories also drops the filter, since its positions no longer mean anything
+    @Override
+    public void clear() {
+        mFilteredPositions = null;
+        mFilteredCount = 0;
+        mDayGroups.clear();
+        super.clear();
+    }
+
+    @Override
+    public void add(NewsStory newsStory) {
+        // Appended stories aren't visible through a filter until it's applied again
+        if (mFilteredPositions == null) {
+            mDayGroups.append(newsStory.getPublicationTimeMillis());
+        }
+        super.add(newsStory);
+    }
+
+    @Override
+    public void addAll(@NonNull Collection<? extends NewsStory> collection) {
+        // Appended stories aren't visible through a filter until it's applied again
+        if (mFilteredPositions == null) {
+            for (NewsStory newsStory : collection) {
+                mDayGroups.append(newsStory.getPublicationTimeMillis());
+            }
+        }
+        super.addAll(collection);
+    }
+
+    @Override
+    public void insert(NewsStory newsStory, int index) {
+        if (mFilteredPositions != null) {
+            // Inserted stories aren't visible through a filter until it's applied again,
+            // but the filtered stories after it have moved along by one
+            for (int i = 0; i < mFilteredCount; i++) {
+                if (mFilteredPositions[i] >= index) {
+                    mFilteredPositions[i]++;
+                }
+            }
+            super.insert(newsStory, index);
+        } else if (index == 0) {
+            // Prepending only touches the first group
+            mDayGroups.prepend(newsStory.getPublicationTimeMillis());
+            super.insert(newsStory, index);
+        } else {
+            super.insert(newsStory, index);
+            rebuildDayGroupsAndNotify();
+        }
+    }
+
+    @Override
+    public void remove(NewsStory newsStory) {
+        int index = getPosition(newsStory);
+        if (index < 0) {
+            return;
+        }
+        if (mFilteredPositions != null) {
+            // Drop it from the filter, and move the filtered stories after it back by one
+            int count = 0;
+            for (int i = 0; i < mFilteredCount; i++) {
+                int position = mFilteredPositions[i];
+                if (position != index) {
+                    mFilteredPositions[count++] = position > index ? position - 1 : position;
+                }
+            }
+            mFilteredCount = count;
+        }
+        super.remove(newsStory);
+        rebuildDayGroupsAndNotify();
+    }
+
+    // Sorting moves every story, so like clear() it drops the filter
+    @Override
+    public void sort(@NonNull Comparator<? super NewsStory> comparator) {
+        mFilteredPositions = null;
+        mFilteredCount = 0;
+        super.sort(comparator);
+        rebuildDayGroupsAndNotify();
+    }
+
+    // Label for the day header that the given row sits under, for the sticky header
+    public String getDayLabel(int position) {
+        if (!isGrouped()) {
+            return null;
+        }
+        int group = mDayGroups.getGroupForPosition(position);
+        long day = mDayGroups.getGroupDay(group);
+        String label = mDayLabels.get(day);
+        if (label == null) {
+            label = mDayLabelFormat.format(new Date(mDayGroups.getGroupDayStartMillis(group)));
+            mDayLabels.put(day, label);
+        }
+        return label;
+    }
+
+    // Size of the day label cache, the stories themselves are counted by NewsPipeline
+    @Override
+    public long getSizeBytes() {
+        return mDayLabels.size() * DAY_LABEL_SIZE_BYTES;
+    }
+
+    // Labels are cheap to format again, so any trim just drops them all
+    @Override
+    public long trimToSize(long maxBytes) {
+        if (getSizeBytes() > maxBytes) {
+            mDayLabels.clear();
+        }
+        return getSizeBytes();
+    }
+
+    // Whether header rows are currently being shown
+    public boolean isGrouped() {
+        return mGroupByDay && mDayGroups.getGroupCount() > 0;
+    }
+
+    @Override
+    public int getCount() {
+        int storyCount = mFilteredPositions != null ? mFilteredCount : super.getCount();
+        return isGrouped() ? storyCount + mDayGroups.getGroupCount() : storyCount;
+    }
+
+    // Returns null for day header rows
+    @Override
+    public NewsStory getItem(int position) {
+        int storyPosition = getStoryPosition(position);
+        return storyPosition >= 0 ? super.getItem(storyPosition) : null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        int storyPosition = getStoryPosition(position);
+        return storyPosition >= 0 ? storyPosition : -1 - mDayGroups.getGroupForPosition(position);
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return getStoryPosition(position) >= 0 ? VIEW_TYPE_STORY : VIEW_TYPE_DAY_HEADER;
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return false;
+    }
+
+    // Day headers can't be clicked
+    @Override
+    public boolean isEnabled(int position) {
+        return getStoryPosition(position) >= 0;
+    }
+
+    // Position in the underlying list of the story shown at the given row, or -1 for a header
+    private int getStoryPosition(int position) {
+        int visibleIndex = position;
+        if (isGrouped()) {
+            if (mDayGroups.isHeader(position)) {
+                return -1;
+            }
+            visibleIndex = mDayGroups.getItemIndex(position);
+        }
+        return mFilteredPositions != null ? mFilteredPositions[visibleIndex] : visibleIndex;
+    }
+
+    // ArrayAdapter notifies as soon as it has changed the list, before the day groups are
+    // redone, so notify again once the row count is right
+    private void rebuildDayGroupsAndNotify() {
+        rebuildDayGroups();
+        notifyDataSetChanged();
+    }
+
+    // Find the day boundaries over every visible story from scratch, only needed when
+    // the visible stories change other than by appending or prepending
+    private void rebuildDayGroups() {
+        mDayGroups.clear();
+        int storyCount = mFilteredPositions != null ? mFilteredCount : super.getCount();
+        for (int i = 0; i < storyCount; i++) {
+            int storyPosition = mFilteredPositions != null ? mFilteredPositions[i] : i;
+            mDayGroups.append(super.getItem(storyPosition).getPublicationTimeMillis());
+        }
     }
 
     @NonNull
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
 
+        // Day header rows use their own layout, recycled separately by ListView
+        if (getItemViewType(position) == VIEW_TYPE_DAY_HEADER) {
+            return getDayHeaderView(position, convertView, parent);
+        }
+
         // Store the passed in convertView param in a View variable
         View listItemView = convertView;
 
@@ -61,28 +327,71 @@ public class NewsStoryAdapter extends ArrayAdapter<NewsStory> {
             // Set the title text view to display title of current NewsStory
             titleTextView.setText(currentNewsStory.getWebTitle());
 
-            // Find the date text view in our list item layout
+            // Find the date and time views in our list item layout
             TextView dateTextView = (TextView) listItemView.findViewById(R.id.date_text_view);
-            if (currentNewsStory.getOutputDateString() != null) {
-                // Set the date text view to display publication date of current NewsStory
-                dateTextView.setText(currentNewsStory.getOutputDateString());
-            } else {
-                // If current NewsStory's date is empty, set empty state text
-                dateTextView.setText(R.string.no_date_listed);
-            }
-
-            // Find the time text view in our list item layout
+            ImageView calendarImageView = (ImageView) listItemView.findViewById(R.id.calendar_image_view);
             TextView timeTextView = (TextView) listItemView.findViewById(R.id.time_text_view);
             ImageView clockImageView = (ImageView) listItemView.findViewById(R.id.clock_image_view);
-            if (currentNewsStory.getOutputTimeString() != null) {
-                // Set the date text view to display publication date of current NewsStory
-                timeTextView.setText(currentNewsStory.getOutputTimeString());
+            long publicationTimeMillis = currentNewsStory.getPublicationTimeMillis();
+            if (publicationTimeMillis != 0) {
+                mRowDate.setTime(publicationTimeMillis);
+                if (isGrouped()) {
+                    // The day header above already shows the date, hide stuff
+                    calendarImageView.setVisibility(View.GONE);
+                    dateTextView.setVisibility(View.GONE);
+                } else {
+                    // Set the date text view to display publication date of current NewsStory
+                    dateTextView.setText(mRowDateFormat.format(mRowDate));
+                    calendarImageView.setVisibility(View.VISIBLE);
+                    dateTextView.setVisibility(View.VISIBLE);
+                }
+                // Set the time text view to display publication time of current NewsStory
+                timeTextView.setText(mRowTimeFormat.format(mRowDate));
+                clockImageView.setVisibility(View.VISIBLE);
+                timeTextView.setVisibility(View.VISIBLE);
             } else {
-                // If current NewsStory's time is somehow empty, hide stuff
+                // If current NewsStory's date is empty, set empty state text and hide the time
+                dateTextView.setText(R.string.no_date_listed);
+                calendarImageView.setVisibility(View.VISIBLE);
+                dateTextView.setVisibility(View.VISIBLE);
                 clockImageView.setVisibility(View.GONE);
                 timeTextView.setVisibility(View.GONE);
             }
 
+            // Find the similar stories toggle and list in our list item layout
+            TextView similarCountTextView = (TextView) listItemView.findViewById(R.id.similar_count_text_view);
+            LinearLayout similarStoriesLinearLayout = (LinearLayout) listItemView.findViewById(R.id.similar_stories_linear_layout);
+            List<NewsStory> duplicates = currentNewsStory.getDuplicates();
+            if (duplicates.isEmpty()) {
+                // Nothing was collapsed into this story, hide stuff
+                similarCountTextView.setVisibility(View.GONE);
+                similarStoriesLinearLayout.setVisibility(View.GONE);
+            } else {
+                final boolean expanded = mExpandedStoryUrls.contains(currentNewsStory.getWebUrl());
+                similarCountTextView.setVisibility(View.VISIBLE);
+                if (expanded) {
+                    similarCountTextView.setText(R.string.hide_similar_stories);
+                    bindSimilarStories(similarStoriesLinearLayout, duplicates);
+                    similarStoriesLinearLayout.setVisibility(View.VISIBLE);
+                } else {
+                    similarCountTextView.setText(getContext().getResources().getQuantityString(
+                            R.plurals.similar_stories_count, duplicates.size(), duplicates.size()));
+                    similarStoriesLinearLayout.setVisibility(View.GONE);
+                }
+                // Expand or collapse the similar stories when the toggle is clicked
+                similarCountTextView.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        if (expanded) {
+                            mExpandedStoryUrls.remove(currentNewsStory.getWebUrl());
+                        } else {
+                            mExpandedStoryUrls.add(currentNewsStory.getWebUrl());
+                        }
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+
             // Find the share image view in our list item layout
             ImageView shareImageView = (ImageView) listItemView.findViewById(R.id.share_image_view);
             // Set a click listener on share image view so it does stuff when clicked
@@ -101,4 +410,48 @@ public class NewsStoryAdapter extends ArrayAdapter<NewsStory> {
         }
         return listItemView;
     }
+
+    // Show a title for each similar story, reusing the TextViews already in the layout
+    // from the last time this row was bound and only inflating extra ones as needed
+    private void bindSimilarStories(LinearLayout similarStoriesLinearLayout, List<NewsStory> duplicates) {
+        for (int i = 0; i < duplicates.size(); i++) {
+            TextView similarStoryTextView;
+            if (i < similarStoriesLinearLayout.getChildCount()) {
+                similarStoryTextView = (TextView) similarStoriesLinearLayout.getChildAt(i);
+            } else {
+                similarStoryTextView = (TextView) LayoutInflater.from(getContext()).inflate(
+                        R.layout.list_item_similar_story, similarStoriesLinearLayout, false);
+                similarStoriesLinearLayout.addView(similarStoryTextView);
+            }
+            final NewsStory duplicate = duplicates.get(i);
+            similarStoryTextView.setText(duplicate.getWebTitle());
+            similarStoryTextView.setVisibility(View.VISIBLE);
+            // Open the similar story in a browser when it's clicked
+            similarStoryTextView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    Intent webIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(duplicate.getWebUrl()));
+                    if (webIntent.resolveActivity(mContext.getPackageManager()) != null) {
+                        mContext.startActivity(webIntent);
+                    }
+                }
+            });
+        }
+        // Hide TextViews left over from a row with more similar stories
+        for (int i = duplicates.size(); i < similarStoriesLinearLayout.getChildCount(); i++) {
+            similarStoriesLinearLayout.getChildAt(i).setVisibility(View.GONE);
+        }
+    }
+
+    // Bind a day header row
+    private View getDayHeaderView(int position, View convertView, ViewGroup parent) {
+        View headerView = convertView;
+        if (headerView == null) {
+            headerView = LayoutInflater.from(getContext()).inflate(
+                    R.layout.list_day_header, parent, false);
+        }
+        TextView dayTextView = (TextView) headerView.findViewById(R.id.day_header_text_view);
+        dayTextView.setText(getDayLabel(position));
+        return headerView;
+    }
 }
@@ -2,6 +2,7 @@ package com.bskup.solarnews;
 
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.preference.CheckBoxPreference;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
@@ -60,6 +61,20 @@ public class SettingsActivity extends AppCompatActivity {
 
             Preference theme = findPreference(getString(R.string.settings_theme_key));
             bindPreferenceSummaryToValue(theme);
+
+            // Show what the adaptive page size last measured and chose, for debugging.
+            // Until a response has been measured the estimator only has its starting guesses,
+            // so don't show those as if they were measurements.
+            CheckBoxPreference adaptivePageSize = (CheckBoxPreference) findPreference(getString(R.string.settings_adaptive_page_size_key));
+            if (ThroughputEstimator.getSampleCount() == 0) {
+                adaptivePageSize.setSummaryOn(R.string.settings_adaptive_page_size_summary_not_measured);
+            } else {
+                adaptivePageSize.setSummaryOn(getString(R.string.settings_adaptive_page_size_summary_on,
+                        ThroughputEstimator.getLastPageSize(),
+                        Math.round(ThroughputEstimator.getBytesPerSecond() / 1024),
+                        Math.round(ThroughputEstimator.getLatencyMs()),
+                        ThroughputEstimator.getLastPrefetchDepth()));
+            }
         }
 
         @Override
@@ -0,0 +1,69 @@
+package com.bskup.solarnews;
+
+import android.app.Application;
+import android.util.Log;
+
+/**
+ * Application class, which registers the process wide caches and passes memory pressure
+ * callbacks on to CacheRegistry.
+ */
+
+public class SolarNewsApplication extends Application {
+
+    // Tag for log messages
+    private static final String LOG_TAG = SolarNewsApplication.class.getName();
+
+    // Name the pipeline's last story list is registered under
+    public static final String CACHE_LAST_STORY_LIST = "last_story_list";
+    // Name the list's day header labels are registered under
+    public static final String CACHE_DAY_LABELS = "day_labels";
+    // Name the near duplicate index is registered under
+    public static final String CACHE_NEAR_DUPLICATE_INDEX = "near_duplicate_index";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // The last loaded stories are what the user sees, so they're trimmed last
+        NewsPipeline newsPipeline = NewsPipeline.getInstance();
+        newsPipeline.setSpillDirectory(getCacheDir());
+        CacheRegistry.getInstance().register(CACHE_LAST_STORY_LIST, CacheRegistry.PRIORITY_HIGH, newsPipeline);
+
+        // The near duplicate index only helps collapse future loads, so it can go before
+        // the stories do. It can't be partly trimmed, so any trim clears it.
+        final NearDuplicateCollapser nearDuplicateCollapser = newsPipeline.getNearDuplicateCollapser();
+        CacheRegistry.getInstance().register(CACHE_NEAR_DUPLICATE_INDEX, CacheRegistry.PRIORITY_NORMAL,
+                new CacheRegistry.Trimmable() {
+                    @Override
+                    public long getSizeBytes() {
+                        return nearDuplicateCollapser.estimateSizeBytes();
+                    }
+
+                    @Override
+                    public long trimToSize(long maxBytes) {
+                        if (nearDuplicateCollapser.estimateSizeBytes() > maxBytes) {
+                            nearDuplicateCollapser.clear();
+                        }
+                        return nearDuplicateCollapser.estimateSizeBytes();
+                    }
+                });
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        CacheRegistry cacheRegistry = CacheRegistry.getInstance();
+        long freedBytes = cacheRegistry.onTrimMemory(level);
+        // Temp log message
+        Log.v(LOG_TAG, "onTrimMemory(" + level + ") freed " + freedBytes + " bytes, " + cacheRegistry.describe());
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        CacheRegistry cacheRegistry = CacheRegistry.getInstance();
+        long freedBytes = cacheRegistry.onLowMemory();
+        // Temp log message
+        Log.v(LOG_TAG, "onLowMemory freed " + freedBytes + " bytes, " + cacheRegistry.describe());
+    }
+}
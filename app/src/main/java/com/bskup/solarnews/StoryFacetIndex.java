@@ -0,0 +1,146 @@
+package com.bskup.solarnews;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory facet index over the stories shown in the list, so they can be filtered by
+ * section and publication time without another request. Stories are referred to by their
+ * position in the list. Each section maps to a BitSet of positions, and positions are also
+ * kept sorted by publication time so a time range is found with two binary searches.
+ * Stories are added incrementally as they arrive, nothing is rebuilt.
+ */
+
+public class StoryFacetIndex {
+
+    // Starting size of the time sorted arrays, they double when full
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Section name to positions of stories in that section
+    private final Map<String, BitSet> mSectionBits = new HashMap<>();
+    // Section names in the order they were first seen, for showing filter choices
+    private final List<String> mSectionNames = new ArrayList<>();
+    // Publication times in ascending order, and the position of the story each belongs to
+    private long[] mSortedTimes = new long[INITIAL_CAPACITY];
+    private int[] mSortedPositions = new int[INITIAL_CAPACITY];
+    // Number of stories indexed so far
+    private int mSize;
+    // Reused by filter() for the union of the selected sections, so filtering doesn't allocate
+    private final BitSet mSectionMatches = new BitSet();
+
+    // Index stories appended to the end of the list
+    public void addStories(List<NewsStory> newsStoryList) {
+        ensureCapacity(mSize + newsStoryList.size());
+        for (NewsStory newsStory : newsStoryList) {
+            int position = mSize;
+
+            String sectionName = newsStory.getSectionName();
+            BitSet sectionBits = mSectionBits.get(sectionName);
+            if (sectionBits == null) {
+                sectionBits = new BitSet();
+                mSectionBits.put(sectionName, sectionBits);
+                mSectionNames.add(sectionName);
+            }
+            sectionBits.set(position);
+
+            // Insert after any stories with the same time, so ties keep list order
+            long time = newsStory.getPublicationTimeMillis();
+            int insertAt = upperBound(time);
+            System.arraycopy(mSortedTimes, insertAt, mSortedTimes, insertAt + 1, mSize - insertAt);
+            System.arraycopy(mSortedPositions, insertAt, mSortedPositions, insertAt + 1, mSize - insertAt);
+            mSortedTimes[insertAt] = time;
+            mSortedPositions[insertAt] = position;
+
+            mSize++;
+        }
+    }
+
+    // Forget every indexed story
+    public void clear() {
+        mSectionBits.clear();
+        mSectionNames.clear();
+        mSize = 0;
+    }
+
+    // Number of stories indexed
+    public int size() {
+        return mSize;
+    }
+
+    // Section names seen so far, in the order they first appeared. This is a copy, so
+    // callers can hold on to it while the index is cleared and refilled by a new load.
+    public List<String> getSectionNames() {
+        return new ArrayList<>(mSectionNames);
+    }
+
+    // Find the positions of stories in any of the given sections (or any section if the
+    // collection is empty) published between fromTimeMillis and toTimeMillis inclusive.
+    // The result is written into the given BitSet so it can be reused between filters.
+    // Only call this from one thread at a time, it shares a scratch BitSet between calls.
+    public BitSet filter(Collection<String> sectionNames, long fromTimeMillis, long toTimeMillis, BitSet result) {
+        result.clear();
+
+        // Time range first, as a run of the time sorted array
+        int start = lowerBound(fromTimeMillis);
+        int end = upperBound(toTimeMillis);
+        for (int i = start; i < end; i++) {
+            result.set(mSortedPositions[i]);
+        }
+
+        // Then keep only the selected sections
+        if (!sectionNames.isEmpty()) {
+            mSectionMatches.clear();
+            for (String sectionName : sectionNames) {
+                BitSet sectionBits = mSectionBits.get(sectionName);
+                if (sectionBits != null) {
+                    mSectionMatches.or(sectionBits);
+                }
+            }
+            result.and(mSectionMatches);
+        }
+        return result;
+    }
+
+    // First index in the sorted times with a time of at least the given time
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mSortedTimes[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First index in the sorted times with a time later than the given time
+    private int upperBound(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mSortedTimes[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mSortedTimes.length) {
+            int newCapacity = Math.max(capacity, mSortedTimes.length * 2);
+            mSortedTimes = Arrays.copyOf(mSortedTimes, newCapacity);
+            mSortedPositions = Arrays.copyOf(mSortedPositions, newCapacity);
+        }
+    }
+}
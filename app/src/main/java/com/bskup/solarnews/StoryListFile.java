@@ -0,0 +1,92 @@
+package com.bskup.solarnews;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes a list of news stories to a file, so a cache can spill its stories to
+ * disk under memory pressure and read them back later instead of fetching them again.
+ */
+
+public class StoryListFile {
+
+    // Bumped whenever the file layout changes, so old files are ignored rather than misread
+    private static final int FORMAT_VERSION = 3;
+
+    // Private constructor because this class only holds static methods
+    private StoryListFile() {
+    }
+
+    // Write the stories to the file, replacing anything already there
+    public static void write(File file, List<NewsStory> newsStoryList) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(FORMAT_VERSION);
+            writeStories(output, newsStoryList);
+        } finally {
+            output.close();
+        }
+    }
+
+    // Read stories back from a file written by write
+    public static List<NewsStory> read(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown story list format in " + file);
+            }
+            return readStories(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    // Each story is followed by its collapsed near duplicates, written the same way
+    private static void writeStories(DataOutputStream output, List<NewsStory> newsStoryList) throws IOException {
+        output.writeInt(newsStoryList.size());
+        for (NewsStory newsStory : newsStoryList) {
+            writeString(output, newsStory.getSectionName());
+            writeString(output, newsStory.getWebTitle());
+            writeString(output, newsStory.getWebUrl());
+            output.writeLong(newsStory.getPublicationTimeMillis());
+            writeStories(output, newsStory.getDuplicates());
+        }
+    }
+
+    private static List<NewsStory> readStories(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        List<NewsStory> newsStoryList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String sectionName = readString(input);
+            String webTitle = readString(input);
+            String webUrl = readString(input);
+            long publicationTimeMillis = input.readLong();
+            NewsStory newsStory = new NewsStory(sectionName, webTitle, webUrl, publicationTimeMillis);
+            for (NewsStory duplicate : readStories(input)) {
+                newsStory.addDuplicate(duplicate);
+            }
+            newsStoryList.add(newsStory);
+        }
+        return newsStoryList;
+    }
+
+    // Strings can be null, so each one is preceded by a flag saying whether it's there
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        output.writeBoolean(string != null);
+        if (string != null) {
+            output.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
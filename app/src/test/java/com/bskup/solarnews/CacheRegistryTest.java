@@ -0,0 +1,158 @@
+package com.bskup.solarnews;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Simulates each memory trim level against a CacheRegistry holding one cache of each
+ * priority, and checks which caches get trimmed and by how much.
+ */
+public class CacheRegistryTest {
+
+    private static final long LOW_SIZE = 1000;
+    private static final long NORMAL_SIZE = 1000;
+    private static final long HIGH_SIZE = 2000;
+
+    private CacheRegistry mCacheRegistry;
+    private FakeCache mLowCache;
+    private FakeCache mNormalCache;
+    private FakeCache mHighCache;
+
+    @Before
+    public void setUp() {
+        mCacheRegistry = new CacheRegistry();
+        mLowCache = new FakeCache(LOW_SIZE);
+        mNormalCache = new FakeCache(NORMAL_SIZE);
+        mHighCache = new FakeCache(HIGH_SIZE);
+        mCacheRegistry.register("high", CacheRegistry.PRIORITY_HIGH, mHighCache);
+        mCacheRegistry.register("low", CacheRegistry.PRIORITY_LOW, mLowCache);
+        mCacheRegistry.register("normal", CacheRegistry.PRIORITY_NORMAL, mNormalCache);
+    }
+
+    @Test
+    public void runningModerate_trimsLowPriorityFirst() throws Exception {
+        assertEquals(1000, mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertSizes(0, NORMAL_SIZE, HIGH_SIZE);
+    }
+
+    @Test
+    public void runningLow_trimsLowAndNormalPriority() throws Exception {
+        assertEquals(2000, mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertSizes(0, 0, HIGH_SIZE);
+    }
+
+    @Test
+    public void runningCritical_leavesHighPriorityWhileVisible() throws Exception {
+        assertEquals(2000, mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertSizes(0, 0, HIGH_SIZE);
+    }
+
+    @Test
+    public void uiHidden_trimsLowPriority() throws Exception {
+        assertEquals(1000, mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertSizes(0, NORMAL_SIZE, HIGH_SIZE);
+    }
+
+    @Test
+    public void background_trimsHalf() throws Exception {
+        assertEquals(2000, mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertSizes(0, 0, HIGH_SIZE);
+    }
+
+    @Test
+    public void moderate_trimsIntoHighPriority() throws Exception {
+        assertEquals(3000, mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertSizes(0, 0, 1000);
+    }
+
+    @Test
+    public void complete_trimsEverything() throws Exception {
+        assertEquals(4000, mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        assertSizes(0, 0, 0);
+    }
+
+    @Test
+    public void lowMemory_trimsEverything() throws Exception {
+        assertEquals(4000, mCacheRegistry.onLowMemory());
+        assertSizes(0, 0, 0);
+    }
+
+    @Test
+    public void unknownLowLevel_trimsNothing() throws Exception {
+        assertEquals(0, mCacheRegistry.onTrimMemory(0));
+        assertSizes(LOW_SIZE, NORMAL_SIZE, HIGH_SIZE);
+    }
+
+    @Test
+    public void allOrNothingCache_isSpilledWhole() throws Exception {
+        AllOrNothingCache spillingCache = new AllOrNothingCache(HIGH_SIZE);
+        mCacheRegistry.register("high", CacheRegistry.PRIORITY_HIGH, spillingCache);
+
+        mCacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
+        assertEquals(0, spillingCache.getSizeBytes());
+    }
+
+    @Test
+    public void footprint_isReportedPerCache() throws Exception {
+        assertEquals(LOW_SIZE + NORMAL_SIZE + HIGH_SIZE, mCacheRegistry.getTotalSizeBytes());
+        assertEquals(HIGH_SIZE, mCacheRegistry.getSizeBytes("high"));
+        assertEquals(-1, mCacheRegistry.getSizeBytes("missing"));
+        assertTrue(mCacheRegistry.describe().contains("low (priority 0): 1000 bytes"));
+    }
+
+    @Test
+    public void unregister_onlyRemovesThatCache() throws Exception {
+        FakeCache replacement = new FakeCache(500);
+        mCacheRegistry.register("low", CacheRegistry.PRIORITY_LOW, replacement);
+
+        // The old cache was already replaced, so unregistering it leaves the replacement
+        mCacheRegistry.unregister(mLowCache);
+        assertEquals(500, mCacheRegistry.getSizeBytes("low"));
+
+        mCacheRegistry.unregister(replacement);
+        assertEquals(-1, mCacheRegistry.getSizeBytes("low"));
+    }
+
+    private void assertSizes(long lowSize, long normalSize, long highSize) {
+        assertEquals("low priority size", lowSize, mLowCache.getSizeBytes());
+        assertEquals("normal priority size", normalSize, mNormalCache.getSizeBytes());
+        assertEquals("high priority size", highSize, mHighCache.getSizeBytes());
+    }
+
+    // Cache that can shrink to any size
+    private static class FakeCache implements CacheRegistry.Trimmable {
+        private long mSizeBytes;
+
+        FakeCache(long sizeBytes) {
+            mSizeBytes = sizeBytes;
+        }
+
+        @Override
+        public long getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        @Override
+        public long trimToSize(long maxBytes) {
+            mSizeBytes = Math.min(mSizeBytes, maxBytes);
+            return mSizeBytes;
+        }
+    }
+
+    // Cache that's either all in memory or all spilled, like NewsPipeline's last result
+    private static class AllOrNothingCache extends FakeCache {
+        AllOrNothingCache(long sizeBytes) {
+            super(sizeBytes);
+        }
+
+        @Override
+        public long trimToSize(long maxBytes) {
+            return super.trimToSize(maxBytes < getSizeBytes() ? 0 : maxBytes);
+        }
+    }
+}
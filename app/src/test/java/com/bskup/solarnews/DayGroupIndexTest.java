@@ -0,0 +1,185 @@
+package com.bskup.solarnews;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks DayGroupIndex finds the same day boundaries, header positions and item indexes
+ * as working them out by hand, including across time zones and before the epoch.
+ */
+public class DayGroupIndexTest {
+
+    private static final long ONE_HOUR_MILLIS = 60L * 60 * 1000;
+    private static final long ONE_DAY_MILLIS = 24 * ONE_HOUR_MILLIS;
+    // Midnight UTC on December 1st 2016
+    private static final long DECEMBER_1 = 1480550400000L;
+
+    private DayGroupIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new DayGroupIndex(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Test
+    public void empty_hasNoGroups() throws Exception {
+        assertEquals(0, mIndex.getGroupCount());
+        assertEquals(0, mIndex.getItemCount());
+        assertFalse(mIndex.isHeader(0));
+    }
+
+    @Test
+    public void append_startsGroupOnEachNewDay() throws Exception {
+        // Newest first, like the feed: three stories on the 3rd, one on the 2nd, two on the 1st
+        appendAll(DECEMBER_1 + 2 * ONE_DAY_MILLIS + 20 * ONE_HOUR_MILLIS,
+                DECEMBER_1 + 2 * ONE_DAY_MILLIS + 9 * ONE_HOUR_MILLIS,
+                DECEMBER_1 + 2 * ONE_DAY_MILLIS,
+                DECEMBER_1 + ONE_DAY_MILLIS + 12 * ONE_HOUR_MILLIS,
+                DECEMBER_1 + 23 * ONE_HOUR_MILLIS,
+                DECEMBER_1);
+
+        assertEquals(6, mIndex.getItemCount());
+        assertEquals(3, mIndex.getGroupCount());
+        // Header rows sit above each group: H0 a b c H1 d H2 e f
+        assertEquals(0, mIndex.getHeaderPosition(0));
+        assertEquals(4, mIndex.getHeaderPosition(1));
+        assertEquals(6, mIndex.getHeaderPosition(2));
+        assertEquals(DECEMBER_1 + 2 * ONE_DAY_MILLIS, mIndex.getGroupDayStartMillis(0));
+        assertEquals(DECEMBER_1, mIndex.getGroupDayStartMillis(2));
+    }
+
+    @Test
+    public void positions_mapToGroupsAndItems() throws Exception {
+        appendAll(DECEMBER_1 + ONE_DAY_MILLIS, DECEMBER_1 + ONE_DAY_MILLIS, DECEMBER_1, DECEMBER_1);
+
+        // H0 a b H1 c d
+        boolean[] headers = {true, false, false, true, false, false};
+        int[] groups = {0, 0, 0, 1, 1, 1};
+        int[] items = {-1, 0, 1, -1, 2, 3};
+        for (int position = 0; position < headers.length; position++) {
+            assertEquals("header at " + position, headers[position], mIndex.isHeader(position));
+            assertEquals("group at " + position, groups[position], mIndex.getGroupForPosition(position));
+            if (!headers[position]) {
+                assertEquals("item at " + position, items[position], mIndex.getItemIndex(position));
+            }
+        }
+    }
+
+    @Test
+    public void sameDayAgain_laterInList_startsNewGroup() throws Exception {
+        // Ordered by relevance the days can come back, each run gets its own header
+        appendAll(DECEMBER_1, DECEMBER_1 + ONE_DAY_MILLIS, DECEMBER_1);
+
+        assertEquals(3, mIndex.getGroupCount());
+    }
+
+    @Test
+    public void days_followTheIndexTimeZone() throws Exception {
+        DayGroupIndex newYork = new DayGroupIndex(TimeZone.getTimeZone("America/New_York"));
+        // 3am UTC on the 2nd is still the evening of the 1st in New York
+        newYork.append(DECEMBER_1 + ONE_DAY_MILLIS + 3 * ONE_HOUR_MILLIS);
+        newYork.append(DECEMBER_1 + 20 * ONE_HOUR_MILLIS);
+
+        assertEquals(1, newYork.getGroupCount());
+        assertEquals(DECEMBER_1 + 5 * ONE_HOUR_MILLIS, newYork.getGroupDayStartMillis(0));
+    }
+
+    @Test
+    public void timesBeforeEpoch_roundDown() throws Exception {
+        appendAll(ONE_HOUR_MILLIS, -ONE_HOUR_MILLIS);
+
+        assertEquals(2, mIndex.getGroupCount());
+        assertEquals(-1, mIndex.getGroupDay(1));
+    }
+
+    @Test
+    public void prepend_sameDay_joinsFirstGroup() throws Exception {
+        appendAll(DECEMBER_1 + ONE_DAY_MILLIS, DECEMBER_1);
+        mIndex.prepend(DECEMBER_1 + ONE_DAY_MILLIS + ONE_HOUR_MILLIS);
+
+        // H0 new a H1 b
+        assertEquals(3, mIndex.getItemCount());
+        assertEquals(2, mIndex.getGroupCount());
+        assertEquals(3, mIndex.getHeaderPosition(1));
+        assertEquals(0, mIndex.getItemIndex(1));
+        assertEquals(2, mIndex.getItemIndex(4));
+    }
+
+    @Test
+    public void prepend_newDay_startsGroupAtTop() throws Exception {
+        appendAll(DECEMBER_1 + ONE_DAY_MILLIS, DECEMBER_1);
+        mIndex.prepend(DECEMBER_1 + 2 * ONE_DAY_MILLIS);
+
+        // H0 new H1 a H2 b
+        assertEquals(3, mIndex.getGroupCount());
+        assertEquals(DECEMBER_1 + 2 * ONE_DAY_MILLIS, mIndex.getGroupDayStartMillis(0));
+        assertEquals(2, mIndex.getHeaderPosition(1));
+        assertEquals(4, mIndex.getHeaderPosition(2));
+        assertEquals(2, mIndex.getItemIndex(5));
+    }
+
+    @Test
+    public void prependedAndAppended_matchAppendingInOrder() throws Exception {
+        long[] timesMillis = new long[40];
+        for (int i = 0; i < timesMillis.length; i++) {
+            // Newest first, a few stories a day
+            timesMillis[i] = DECEMBER_1 + (20 - i / 3) * ONE_DAY_MILLIS;
+        }
+        appendAll(timesMillis);
+        DayGroupIndex built = new DayGroupIndex(TimeZone.getTimeZone("UTC"));
+        for (int i = 20; i < timesMillis.length; i++) {
+            built.append(timesMillis[i]);
+        }
+        for (int i = 19; i >= 0; i--) {
+            built.prepend(timesMillis[i]);
+        }
+
+        assertEquals(mIndex.getGroupCount(), built.getGroupCount());
+        for (int group = 0; group < mIndex.getGroupCount(); group++) {
+            assertEquals(mIndex.getHeaderPosition(group), built.getHeaderPosition(group));
+            assertEquals(mIndex.getGroupDay(group), built.getGroupDay(group));
+        }
+    }
+
+    @Test
+    public void prepend_toEmpty() throws Exception {
+        mIndex.prepend(DECEMBER_1);
+
+        assertEquals(1, mIndex.getGroupCount());
+        assertEquals(0, mIndex.getHeaderPosition(0));
+        assertEquals(0, mIndex.getItemIndex(1));
+    }
+
+    @Test
+    public void clear_forgetsEverything() throws Exception {
+        appendAll(DECEMBER_1, DECEMBER_1 + ONE_DAY_MILLIS);
+        mIndex.clear();
+        mIndex.append(DECEMBER_1);
+
+        assertEquals(1, mIndex.getItemCount());
+        assertEquals(1, mIndex.getGroupCount());
+        assertEquals(0, mIndex.getHeaderPosition(0));
+    }
+
+    @Test
+    public void manyGroups_growPastInitialCapacity() throws Exception {
+        for (int day = 100; day > 0; day--) {
+            mIndex.append(DECEMBER_1 + day * ONE_DAY_MILLIS);
+            mIndex.append(DECEMBER_1 + day * ONE_DAY_MILLIS);
+        }
+
+        assertEquals(100, mIndex.getGroupCount());
+        assertEquals(99 * 3, mIndex.getHeaderPosition(99));
+        assertEquals(199, mIndex.getItemIndex(99 * 3 + 2));
+    }
+
+    private void appendAll(long... timesMillis) {
+        for (long timeMillis : timesMillis) {
+            mIndex.append(timeMillis);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.bskup.solarnews;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.bskup.solarnews.NewsPipeline.PRIORITY_BACKGROUND;
+import static com.bskup.solarnews.NewsPipeline.PRIORITY_FOREGROUND;
+import static org.junit.Assert.*;
+
+/**
+ * Checks NewsPipeline's stages on the JVM: the order queued tasks run in, what happens when
+ * a queue is full, which queued work a new load removes, and which results count as stale.
+ * Each stage has one thread, held up by a blocking task so the queue can be set up first.
+ */
+public class NewsPipelineStageTest {
+
+    private static final int CAPACITY = 3;
+
+    private NewsPipeline.Stage mStage;
+    private CountDownLatch mRelease;
+    private CountDownLatch mBlockerStarted;
+    // Names of tasks in the order they ran
+    private final List<String> mRunOrder = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        mStage = new NewsPipeline.Stage("test", 1, CAPACITY, Executors.defaultThreadFactory());
+        mRelease = new CountDownLatch(1);
+        mBlockerStarted = new CountDownLatch(1);
+        // Occupy the only thread so everything after this stays in the queue
+        assertTrue(mStage.execute(new NewsPipeline.StageTask(PRIORITY_FOREGROUND, 0) {
+            @Override
+            void doWork() {
+                mBlockerStarted.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+        assertTrue(mBlockerStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+    }
+
+    @Test
+    public void compareTo_foregroundBeforeBackground_thenSubmissionOrder() throws Exception {
+        NewsPipeline.StageTask firstBackground = new NamedTask(PRIORITY_BACKGROUND, 1, "a");
+        NewsPipeline.StageTask firstForeground = new NamedTask(PRIORITY_FOREGROUND, 2, "b");
+        NewsPipeline.StageTask secondForeground = new NamedTask(PRIORITY_FOREGROUND, 3, "c");
+
+        assertTrue(firstForeground.compareTo(firstBackground) < 0);
+        assertTrue(firstBackground.compareTo(secondForeground) > 0);
+        assertTrue(firstForeground.compareTo(secondForeground) < 0);
+        assertTrue(secondForeground.compareTo(firstForeground) > 0);
+        assertEquals(0, firstForeground.compareTo(firstForeground));
+    }
+
+    @Test
+    public void queuedForeground_runsBeforeQueuedBackground() throws Exception {
+        mStage.execute(new NamedTask(PRIORITY_BACKGROUND, 1, "background 1"));
+        mStage.execute(new NamedTask(PRIORITY_BACKGROUND, 2, "background 2"));
+        mStage.execute(new NamedTask(PRIORITY_FOREGROUND, 3, "foreground"));
+
+        runQueue(3);
+
+        assertEquals(3, mRunOrder.size());
+        assertEquals("foreground", mRunOrder.get(0));
+        assertEquals("background 1", mRunOrder.get(1));
+        assertEquals("background 2", mRunOrder.get(2));
+    }
+
+    @Test
+    public void fullQueue_rejectsBackground() throws Exception {
+        for (int i = 1; i <= CAPACITY; i++) {
+            assertTrue(mStage.execute(new NamedTask(PRIORITY_BACKGROUND, i, "background " + i)));
+        }
+
+        assertFalse(mStage.execute(new NamedTask(PRIORITY_BACKGROUND, 4, "rejected")));
+        assertEquals(CAPACITY, mStage.getQueueDepth());
+    }
+
+    @Test
+    public void fullQueue_foregroundDisplacesNewestBackground() throws Exception {
+        for (int i = 1; i <= CAPACITY; i++) {
+            mStage.execute(new NamedTask(PRIORITY_BACKGROUND, i, "background " + i));
+        }
+
+        assertTrue(mStage.execute(new NamedTask(PRIORITY_FOREGROUND, 4, "foreground")));
+        assertEquals(CAPACITY, mStage.getQueueDepth());
+
+        runQueue(CAPACITY);
+        assertEquals("foreground", mRunOrder.get(0));
+        assertFalse(mRunOrder.contains("background " + CAPACITY));
+    }
+
+    @Test
+    public void fullQueueOfForeground_rejectsForeground() throws Exception {
+        for (int i = 1; i <= CAPACITY; i++) {
+            mStage.execute(new NamedTask(PRIORITY_FOREGROUND, i, "foreground " + i));
+        }
+
+        assertFalse(mStage.execute(new NamedTask(PRIORITY_FOREGROUND, 4, "rejected")));
+    }
+
+    @Test
+    public void removeQueuedBefore_onlyRemovesOlderWorkInThatLane() throws Exception {
+        mStage.execute(new NamedTask(PRIORITY_FOREGROUND, 1, "old foreground"));
+        mStage.execute(new NamedTask(PRIORITY_BACKGROUND, 2, "background"));
+        mStage.execute(new NamedTask(PRIORITY_FOREGROUND, 3, "new foreground"));
+
+        mStage.removeQueuedBefore(PRIORITY_FOREGROUND, 3);
+
+        runQueue(2);
+        assertEquals(2, mRunOrder.size());
+        assertEquals("new foreground", mRunOrder.get(0));
+        assertEquals("background", mRunOrder.get(1));
+    }
+
+    @Test
+    public void completedTasks_areTimed() throws Exception {
+        mStage.execute(new NamedTask(PRIORITY_FOREGROUND, 1, "foreground"));
+
+        runQueue(1);
+
+        // The blocker and the queued task
+        assertEquals(2, mStage.getCompletedCount());
+        assertTrue(mStage.getAverageWaitMs() >= 0);
+        assertTrue(mStage.describe().contains("completed: 2"));
+    }
+
+    @Test
+    public void requestTracker_foregroundResultStaleOnlyAfterNewerForeground() throws Exception {
+        NewsPipeline.RequestTracker tracker = new NewsPipeline.RequestTracker();
+        tracker.onStarted(PRIORITY_FOREGROUND, 1);
+        // A background load started later doesn't make the foreground result stale
+        tracker.onStarted(PRIORITY_BACKGROUND, 2);
+        assertFalse(tracker.isStale(PRIORITY_FOREGROUND, 1));
+
+        tracker.onStarted(PRIORITY_FOREGROUND, 3);
+        assertTrue(tracker.isStale(PRIORITY_FOREGROUND, 1));
+        assertFalse(tracker.isStale(PRIORITY_FOREGROUND, 3));
+    }
+
+    @Test
+    public void requestTracker_backgroundResultNeverStale() throws Exception {
+        NewsPipeline.RequestTracker tracker = new NewsPipeline.RequestTracker();
+        tracker.onStarted(PRIORITY_BACKGROUND, 1);
+        tracker.onStarted(PRIORITY_BACKGROUND, 2);
+        tracker.onStarted(PRIORITY_FOREGROUND, 3);
+
+        assertFalse(tracker.isStale(PRIORITY_BACKGROUND, 1));
+        assertFalse(tracker.isStale(PRIORITY_BACKGROUND, 2));
+    }
+
+    // Let the blocker finish and wait for the given number of queued tasks to run
+    private void runQueue(int taskCount) throws InterruptedException {
+        mRelease.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mRunOrder.size() < taskCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // Give any task that shouldn't have run a moment to show up
+        Thread.sleep(20);
+    }
+
+    // Task that records its name when it runs
+    private class NamedTask extends NewsPipeline.StageTask {
+        private final String mName;
+
+        NamedTask(int priority, int requestId, String name) {
+            super(priority, requestId);
+            mName = name;
+        }
+
+        @Override
+        void doWork() {
+            mRunOrder.add(mName);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.bskup.solarnews;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ContextThemeWrapper;
+import android.widget.Adapter;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * JVM performance regression tests for NewsStoryAdapter, run with Robolectric.
+ * Binds a large fixture list through the adapter, scrolls a ListView over it, and fails
+ * when bind time or allocations go over budget by more than the perf.tolerance system
+ * property (set in app/build.gradle), or when binds, inflations or layout work go over
+ * budget at all, since those are counts rather than measurements and don't vary by run.
+ *
+ * Adapters group stories under day headers, as MainActivity does unless stories are
+ * ordered by relevance, so header rows and their recycling are measured too.
+ *
+ * Bind time is measured against a reference adapter binding a single TextView per row on
+ * the same machine, so the budget is a ratio rather than a wall clock time that depends on
+ * how fast the build machine happens to be. Robolectric's shadowed framework code takes a
+ * long time for the JIT to settle, and a short warm up gave ratios anywhere from 5 to 30
+ * on the same code, hence the long warm up and taking the best of many short runs.
+ *
+ * Budgets were set from the measurements this suite prints, and should be set again the
+ * same way whenever the row layout or the device being simulated changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class NewsStoryAdapterPerformanceTest {
+
+    // Number of stories in the fixture list, and how many are published on each day
+    private static final int FIXTURE_SIZE = 1000;
+    private static final int STORIES_PER_DAY = 12;
+    // Binds run before measuring, so class loading and JIT don't count against the budget
+    private static final int WARM_UP_BINDS = 500000;
+    // Bind time is the best of this many timed runs of TIMED_RUN_BINDS binds each, which
+    // filters out GC pauses and compiler threads taking the CPU
+    private static final int TIMED_RUNS = 2000;
+    private static final int TIMED_RUN_BINDS = 200;
+    // Size of the screen the ListView is laid out on
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+
+    // Budgets, raise these deliberately if a change is meant to make binding more expensive.
+    // Bind time per row as a multiple of binding a single TextView row, measured at 7 to 8
+    private static final double BIND_TIME_RATIO_BUDGET = 8;
+    // Measured at 994 bytes, mostly formatting the row time
+    private static final long BIND_ALLOCATION_BUDGET_BYTES = 1000;
+    private static final int LAYOUT_REQUESTS_PER_REFRESH_BUDGET = 3;
+    private static final int LAYOUT_PASSES_PER_REFRESH_BUDGET = 1;
+    // Rows bound in one refresh beyond the rows that fit on screen
+    private static final int EXTRA_BINDS_PER_REFRESH_BUDGET = 0;
+    // Rows bound twice scrolling the whole list, the last step goes past the end and
+    // ListView binds the bottom row again as it settles
+    private static final int EXTRA_BINDS_PER_SCROLL_BUDGET = 1;
+    // Rows inflated scrolling the whole list beyond the rows on screen at once, one per
+    // view type for when the mix of headers and stories on screen changes
+    private static final int EXTRA_INFLATIONS_PER_SCROLL_BUDGET = 2;
+    // Distance scrolled per frame, about what a fast fling moves
+    private static final int SCROLL_STEP = SCREEN_HEIGHT / 8;
+
+    private Context mContext;
+    private List<NewsStory> mFixtureList;
+    private double mTolerance;
+
+    @Before
+    public void setUp() {
+        mContext = new ContextThemeWrapper(RuntimeEnvironment.application, R.style.AppThemeLight);
+        mFixtureList = createFixtureList(FIXTURE_SIZE);
+        mTolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.2"));
+    }
+
+    @Test
+    public void bindTimePerRow_isWithinBudget() throws Exception {
+        ListView parent = new ListView(mContext);
+        List<String> titles = new ArrayList<>(FIXTURE_SIZE);
+        for (NewsStory newsStory : mFixtureList) {
+            titles.add(newsStory.getWebTitle());
+        }
+        ArrayAdapter<String> referenceAdapter = new ArrayAdapter<>(mContext, android.R.layout.simple_list_item_1, titles);
+
+        NewsStoryAdapter adapter = createAdapter(mFixtureList);
+        View[] referenceConvertViews = new View[referenceAdapter.getViewTypeCount()];
+        View[] convertViews = new View[adapter.getViewTypeCount()];
+        bindAll(referenceAdapter, parent, referenceConvertViews, WARM_UP_BINDS);
+        bindAll(adapter, parent, convertViews, WARM_UP_BINDS);
+
+        // Alternate the two so anything slowing the machine down hits both, and keep the best
+        double referenceBindTimeNs = Double.MAX_VALUE;
+        double bindTimeNs = Double.MAX_VALUE;
+        for (int run = 0; run < TIMED_RUNS; run++) {
+            referenceBindTimeNs = Math.min(referenceBindTimeNs, timePerBind(referenceAdapter, parent, referenceConvertViews));
+            bindTimeNs = Math.min(bindTimeNs, timePerBind(adapter, parent, convertViews));
+        }
+
+        System.out.println("bind time per row: " + bindTimeNs + "ns, single TextView row: " + referenceBindTimeNs + "ns");
+        assertWithinBudget("bind time per row relative to a single TextView row",
+                bindTimeNs / referenceBindTimeNs, BIND_TIME_RATIO_BUDGET);
+    }
+
+    @Test
+    public void allocationsPerBind_areWithinBudget() throws Exception {
+        assumeTrue(threadAllocatedBytes() >= 0);
+
+        NewsStoryAdapter adapter = createAdapter(mFixtureList);
+        ListView parent = new ListView(mContext);
+        View[] convertViews = new View[adapter.getViewTypeCount()];
+        bindAll(adapter, parent, convertViews, WARM_UP_BINDS);
+
+        long allocatedBefore = threadAllocatedBytes();
+        bindAll(adapter, parent, convertViews, FIXTURE_SIZE);
+        long bytesPerBind = (threadAllocatedBytes() - allocatedBefore) / FIXTURE_SIZE;
+
+        assertWithinBudget("allocated bytes per bind", bytesPerBind, BIND_ALLOCATION_BUDGET_BYTES);
+    }
+
+    @Test
+    public void recycledBinds_neverInflate() throws Exception {
+        NewsStoryAdapter adapter = createAdapter(mFixtureList);
+        ListView parent = new ListView(mContext);
+
+        // Story rows and header rows are each recycled as their own type
+        View[] convertViews = new View[adapter.getViewTypeCount()];
+        for (int i = 0; i < adapter.getCount(); i++) {
+            int viewType = adapter.getItemViewType(i);
+            View convertView = convertViews[viewType];
+            View view = adapter.getView(i, convertView, parent);
+            if (convertView != null) {
+                assertSame("row " + i + " was inflated instead of recycled", convertView, view);
+            }
+            convertViews[viewType] = view;
+        }
+    }
+
+    @Test
+    public void scrollingWholeList_bindsEachRowOnce() throws Exception {
+        CountingNewsStoryAdapter adapter = new CountingNewsStoryAdapter(mContext, mFixtureList);
+        adapter.setGroupByDay(true);
+        CountingListView listView = new CountingListView(mContext);
+        listView.setAdapter(adapter);
+        layOut(listView);
+        int rowCount = adapter.getCount();
+
+        // Fling through the list a frame at a time, laying out as each frame would
+        while (listView.getLastVisiblePosition() < rowCount - 1) {
+            listView.scrollListBy(SCROLL_STEP);
+            layOut(listView);
+        }
+
+        // Every row, header or story, is bound when it scrolls on screen and never twice
+        assertCountWithinBudget("binds scrolling " + rowCount + " rows", adapter.mBindCount,
+                rowCount + EXTRA_BINDS_PER_SCROLL_BUDGET);
+        // Inflations are limited to the rows on screen at once, everything else is recycled
+        assertCountWithinBudget("inflations scrolling " + rowCount + " rows", adapter.mInflateCount,
+                listView.getChildCount() + EXTRA_INFLATIONS_PER_SCROLL_BUDGET);
+    }
+
+    @Test
+    public void refresh_staysWithinLayoutBudget() throws Exception {
+        CountingNewsStoryAdapter adapter = new CountingNewsStoryAdapter(mContext, new ArrayList<NewsStory>());
+        adapter.setGroupByDay(true);
+        CountingListView listView = new CountingListView(mContext);
+        listView.setAdapter(adapter);
+        adapter.addAll(mFixtureList);
+        layOut(listView);
+        int visibleRows = listView.getChildCount();
+
+        adapter.mBindCount = 0;
+        listView.mLayoutRequestCount = 0;
+        listView.mLayoutPassCount = 0;
+
+        // Same steps MainActivity takes when a load finishes: onNewsStoriesLoaded clears,
+        // updateUi adds and sets the adapter, then applyFilter with no filter chosen
+        adapter.clear();
+        adapter.addAll(mFixtureList);
+        listView.setAdapter(adapter);
+        adapter.setFilter(null);
+        layOut(listView);
+
+        assertCountWithinBudget("layout requests per refresh", listView.mLayoutRequestCount,
+                LAYOUT_REQUESTS_PER_REFRESH_BUDGET);
+        assertCountWithinBudget("layout passes per refresh", listView.mLayoutPassCount,
+                LAYOUT_PASSES_PER_REFRESH_BUDGET);
+        assertCountWithinBudget("binds per refresh", adapter.mBindCount,
+                visibleRows + EXTRA_BINDS_PER_REFRESH_BUDGET);
+    }
+
+    // Fail if the measured value is over budget by more than the allowed tolerance. Every
+    // measurement is printed to the test output so budgets can be recalibrated from it.
+    private void assertWithinBudget(String name, double measured, double budget) {
+        double limit = budget * (1 + mTolerance);
+        System.out.println(name + ": " + measured + " (budget " + budget + ")");
+        assertTrue(name + " was " + measured + ", budget " + budget + " (limit " + limit + ")",
+                measured <= limit);
+    }
+
+    // Fail if the count is over budget at all, counts come out the same on every run
+    private static void assertCountWithinBudget(String name, int count, int budget) {
+        System.out.println(name + ": " + count + " (budget " + budget + ")");
+        assertTrue(name + " was " + count + ", budget " + budget, count <= budget);
+    }
+
+    // Bytes allocated so far by this thread, or -1 if the JVM can't say. Unit tests compile
+    // against android.jar, which has no java.lang.management, so the JVM's allocation
+    // counter is looked up by name when the test runs.
+    private static long threadAllocatedBytes() {
+        try {
+            Object threadBean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            Class<?> allocationBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!allocationBeanClass.isInstance(threadBean)
+                    || !(Boolean) allocationBeanClass.getMethod("isThreadAllocatedMemorySupported").invoke(threadBean)) {
+                return -1;
+            }
+            allocationBeanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadBean, true);
+            Method getThreadAllocatedBytes = allocationBeanClass.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) getThreadAllocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+        } catch (ReflectiveOperationException e) {
+            return -1;
+        }
+    }
+
+    // Adapter set up the way MainActivity sets it up when ordering by date
+    private NewsStoryAdapter createAdapter(List<NewsStory> newsStoryList) {
+        NewsStoryAdapter adapter = new NewsStoryAdapter(mContext, newsStoryList);
+        adapter.setGroupByDay(true);
+        return adapter;
+    }
+
+    // Time per bind in nanoseconds over one short run of binds
+    private static double timePerBind(Adapter adapter, ViewGroup parent, View[] convertViews) {
+        long startTime = System.nanoTime();
+        bindAll(adapter, parent, convertViews, TIMED_RUN_BINDS);
+        return (double) (System.nanoTime() - startTime) / TIMED_RUN_BINDS;
+    }
+
+    // Bind the first count rows, recycling one view per view type the way ListView does
+    private static void bindAll(Adapter adapter, ViewGroup parent, View[] convertViews, int count) {
+        for (int i = 0; i < count; i++) {
+            int position = i % adapter.getCount();
+            int viewType = adapter.getItemViewType(position);
+            convertViews[viewType] = adapter.getView(position, convertViews[viewType], parent);
+        }
+    }
+
+    // Measure and lay out the list on a phone sized screen, the way a frame would
+    private static void layOut(ListView listView) {
+        listView.measure(
+                View.MeasureSpec.makeMeasureSpec(SCREEN_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SCREEN_HEIGHT, View.MeasureSpec.EXACTLY));
+        listView.layout(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    // Stories with a realistic spread of sections and title lengths, newest first with
+    // STORIES_PER_DAY stories on each day
+    private static List<NewsStory> createFixtureList(int size) {
+        String[] sections = {"Environment", "Business", "Technology", "Science", "World news"};
+        List<NewsStory> newsStoryList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder title = new StringBuilder("Solar story " + i + ":");
+            for (int j = 0; j < i % 12; j++) {
+                title.append(" panels and power");
+            }
+            newsStoryList.add(new NewsStory(sections[i % sections.length], title.toString(),
+                    "https://www.theguardian.com/environment/solar-story-" + i,
+                    1480550400000L - (i / STORIES_PER_DAY) * 86400000L - (i % STORIES_PER_DAY) * 60000L));
+        }
+        return newsStoryList;
+    }
+
+    // Adapter that counts binds and inflations
+    private static class CountingNewsStoryAdapter extends NewsStoryAdapter {
+        int mBindCount;
+        int mInflateCount;
+
+        CountingNewsStoryAdapter(Context context, List<NewsStory> newsStoryList) {
+            super(context, newsStoryList);
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            mBindCount++;
+            if (convertView == null) {
+                mInflateCount++;
+            }
+            return super.getView(position, convertView, parent);
+        }
+    }
+
+    // ListView that counts layout requests and layout passes
+    private static class CountingListView extends ListView {
+        int mLayoutRequestCount;
+        int mLayoutPassCount;
+
+        CountingListView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void requestLayout() {
+            mLayoutRequestCount++;
+            super.requestLayout();
+        }
+
+        @Override
+        protected void layoutChildren() {
+            mLayoutPassCount++;
+            super.layoutChildren();
+        }
+    }
+}
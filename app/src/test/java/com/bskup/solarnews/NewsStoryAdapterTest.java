@@ -0,0 +1,149 @@
+package com.bskup.solarnews;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks NewsStoryAdapter keeps its day header rows in step with the list when stories are
+ * inserted, removed or sorted, by comparing every row with an adapter built from scratch
+ * over the same stories.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class NewsStoryAdapterTest {
+
+    private static final long ONE_HOUR_MILLIS = 60L * 60 * 1000;
+    private static final long ONE_DAY_MILLIS = 24 * ONE_HOUR_MILLIS;
+    // Midday on December 1st 2016, so a few hours either way stays on the same day
+    private static final long DECEMBER_1 = 1480593600000L;
+
+    private Context mContext;
+    // The adapter's own list, ArrayAdapter changes it in place
+    private List<NewsStory> mNewsStoryList;
+    private NewsStoryAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mContext = new ContextThemeWrapper(RuntimeEnvironment.application, R.style.AppThemeLight);
+        // Newest first, two stories on each of three days
+        mNewsStoryList = new ArrayList<>();
+        for (int day = 2; day >= 0; day--) {
+            mNewsStoryList.add(story(DECEMBER_1 + day * ONE_DAY_MILLIS + ONE_HOUR_MILLIS));
+            mNewsStoryList.add(story(DECEMBER_1 + day * ONE_DAY_MILLIS));
+        }
+        mAdapter = createAdapter(mNewsStoryList);
+    }
+
+    @Test
+    public void insertAtTop_sameDay_joinsFirstGroup() throws Exception {
+        mAdapter.insert(story(DECEMBER_1 + 2 * ONE_DAY_MILLIS + 2 * ONE_HOUR_MILLIS), 0);
+
+        assertMatchesFreshAdapter();
+        assertEquals(7 + 3, mAdapter.getCount());
+    }
+
+    @Test
+    public void insertAtTop_newDay_addsHeader() throws Exception {
+        mAdapter.insert(story(DECEMBER_1 + 3 * ONE_DAY_MILLIS), 0);
+
+        assertMatchesFreshAdapter();
+        assertEquals(7 + 4, mAdapter.getCount());
+    }
+
+    @Test
+    public void insertInMiddle_regroups() throws Exception {
+        mAdapter.insert(story(DECEMBER_1 + 5 * ONE_DAY_MILLIS), 3);
+
+        assertMatchesFreshAdapter();
+    }
+
+    @Test
+    public void remove_lastStoryOfDay_dropsHeader() throws Exception {
+        mAdapter.remove(mNewsStoryList.get(2));
+        mAdapter.remove(mNewsStoryList.get(2));
+
+        assertMatchesFreshAdapter();
+        assertEquals(4 + 2, mAdapter.getCount());
+    }
+
+    @Test
+    public void sort_regroups() throws Exception {
+        mAdapter.sort(new Comparator<NewsStory>() {
+            @Override
+            public int compare(NewsStory first, NewsStory second) {
+                return Long.compare(first.getPublicationTimeMillis(), second.getPublicationTimeMillis());
+            }
+        });
+
+        assertMatchesFreshAdapter();
+        assertEquals(DECEMBER_1, mAdapter.getItem(1).getPublicationTimeMillis());
+    }
+
+    @Test
+    public void filtered_insertAndRemove_keepFilteredStories() throws Exception {
+        NewsStory firstVisible = mNewsStoryList.get(2);
+        NewsStory secondVisible = mNewsStoryList.get(5);
+        BitSet visiblePositions = new BitSet();
+        visiblePositions.set(2);
+        visiblePositions.set(5);
+        mAdapter.setFilter(visiblePositions);
+
+        // Inserted stories stay hidden until the filter is applied again
+        mAdapter.insert(story(DECEMBER_1 + 3 * ONE_DAY_MILLIS), 0);
+        assertVisibleStories(firstVisible, secondVisible);
+
+        mAdapter.remove(firstVisible);
+        assertVisibleStories(secondVisible);
+    }
+
+    // Every row of the adapter should match an adapter created from the same stories
+    private void assertMatchesFreshAdapter() {
+        NewsStoryAdapter freshAdapter = createAdapter(new ArrayList<>(mNewsStoryList));
+
+        assertEquals(freshAdapter.getCount(), mAdapter.getCount());
+        for (int position = 0; position < mAdapter.getCount(); position++) {
+            assertEquals("view type at " + position, freshAdapter.getItemViewType(position),
+                    mAdapter.getItemViewType(position));
+            assertSame("story at " + position, freshAdapter.getItem(position), mAdapter.getItem(position));
+            assertEquals("day at " + position, freshAdapter.getDayLabel(position), mAdapter.getDayLabel(position));
+        }
+    }
+
+    private void assertVisibleStories(NewsStory... newsStories) {
+        List<NewsStory> visibleStories = new ArrayList<>();
+        for (int position = 0; position < mAdapter.getCount(); position++) {
+            if (mAdapter.getItem(position) != null) {
+                visibleStories.add(mAdapter.getItem(position));
+            }
+        }
+        assertEquals(newsStories.length, visibleStories.size());
+        for (int i = 0; i < newsStories.length; i++) {
+            assertSame(newsStories[i], visibleStories.get(i));
+        }
+    }
+
+    private NewsStoryAdapter createAdapter(List<NewsStory> newsStoryList) {
+        NewsStoryAdapter adapter = new NewsStoryAdapter(mContext, newsStoryList);
+        adapter.setGroupByDay(true);
+        return adapter;
+    }
+
+    private static NewsStory story(long publicationTimeMillis) {
+        return new NewsStory("Environment", "Story at " + publicationTimeMillis,
+                "https://www.theguardian.com/environment/" + publicationTimeMillis, publicationTimeMillis);
+    }
+}
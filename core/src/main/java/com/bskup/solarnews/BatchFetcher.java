@@ -0,0 +1,197 @@
+package com.bskup.solarnews;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line batch fetcher for running the fetch and parse code on a plain JVM.
+ *
+ *   record &lt;url file&gt; &lt;output dir&gt;
+ *       Fetch every url in the file (one per line) and save each response as a .json file.
+ *   replay &lt;response dir&gt; [threads] [repeat]
+ *       Run every recorded .json response through the app's CPU stage (parsing and near
+ *       duplicate collapsing) in parallel, repeat times over, and report throughput.
+ *   fetch &lt;page size&gt; &lt;order by&gt; [count] [threads]
+ *       Fetch and process the app's own query count times in parallel and report throughput.
+ *
+ * Run it with ./gradlew :core:batchFetch -Pargs="replay responses 4 10", or build a
+ * standalone jar with ./gradlew :core:cliJar and run java -jar core/build/libs/core-cli.jar
+ */
+
+public class BatchFetcher {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Private constructor because this class only holds static methods
+    private BatchFetcher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            printUsage();
+            System.exit(1);
+        }
+        String mode = args[0];
+        if (mode.equals("record") && args.length >= 3) {
+            record(new File(args[1]), new File(args[2]));
+        } else if (mode.equals("replay")) {
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            int repeat = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            replay(new File(args[1]), threads, repeat);
+        } else if (mode.equals("fetch") && args.length >= 3) {
+            int count = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+            fetch(GuardianQuery.buildSearchUrl(args[1], args[2]), count, threads);
+        } else {
+            printUsage();
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("usage: BatchFetcher record <url file> <output dir>");
+        System.err.println("       BatchFetcher replay <response dir> [threads] [repeat]");
+        System.err.println("       BatchFetcher fetch <page size> <order by> [count] [threads]");
+    }
+
+    // Fetch each url in the file and save the raw responses for replaying later
+    private static void record(File urlFile, File outputDir) throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create " + outputDir);
+        }
+        List<String> urls = readLines(urlFile);
+        for (int i = 0; i < urls.size(); i++) {
+            String jsonResponse = QueryUtils.fetchNewsJson(urls.get(i));
+            File responseFile = new File(outputDir, String.format(Locale.US, "response-%05d.json", i));
+            Writer writer = new OutputStreamWriter(new FileOutputStream(responseFile), UTF_8);
+            try {
+                writer.write(jsonResponse);
+            } finally {
+                writer.close();
+            }
+        }
+        System.out.println("Recorded " + urls.size() + " responses to " + outputDir);
+    }
+
+    // Process every recorded response in parallel, the CPU half of the app's pipeline
+    private static void replay(File responseDir, int threads, int repeat) throws Exception {
+        File[] responseFiles = responseDir.listFiles();
+        if (responseFiles == null) {
+            throw new IOException(responseDir + " is not a directory");
+        }
+        final List<String> responses = new ArrayList<>();
+        // One collapser shared by every task, like the app's pipeline, so its index grows the same way
+        final NearDuplicateCollapser collapser = new NearDuplicateCollapser();
+        long totalChars = 0;
+        for (File responseFile : responseFiles) {
+            if (responseFile.getName().endsWith(".json")) {
+                String response = readFile(responseFile);
+                responses.add(response);
+                totalChars += response.length();
+            }
+        }
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int r = 0; r < repeat; r++) {
+            for (final String response : responses) {
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return QueryUtils.processNewsJson(response, collapser).size();
+                    }
+                });
+            }
+        }
+        report("replay", tasks, threads, totalChars * repeat);
+    }
+
+    // Fetch and process the same query repeatedly, the whole of the app's pipeline
+    private static void fetch(final String url, int count, int threads) throws Exception {
+        final NearDuplicateCollapser collapser = new NearDuplicateCollapser();
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return QueryUtils.processNewsJson(QueryUtils.fetchNewsJson(url), collapser).size();
+                }
+            });
+        }
+        report("fetch", tasks, threads, 0);
+        System.out.println("Network estimate: " + ThroughputEstimator.describe());
+    }
+
+    // Run the tasks on a fixed pool and print responses, stories and bytes per second.
+    // Stories are counted after near duplicates are collapsed, as the app would show them.
+    private static void report(String name, List<Callable<Integer>> tasks, int threads, long totalChars)
+            throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long startTime = System.nanoTime();
+        long storyCount = 0;
+        try {
+            for (Future<Integer> future : executor.invokeAll(tasks)) {
+                storyCount += future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.println(String.format(Locale.US,
+                "%s: %d responses, %d stories on %d threads in %.3fs", name, tasks.size(), storyCount, threads, seconds));
+        System.out.println(String.format(Locale.US,
+                "  %.1f responses/s, %.1f stories/s", tasks.size() / seconds, storyCount / seconds));
+        if (totalChars > 0) {
+            System.out.println(String.format(Locale.US,
+                    "  %.2f MB/s of JSON", totalChars / seconds / (1024 * 1024)));
+        }
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line.trim());
+                }
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder output = new StringBuilder();
+        InputStreamReader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+        try {
+            char[] buffer = new char[8192];
+            int read = reader.read(buffer);
+            while (read != -1) {
+                output.append(buffer, 0, read);
+                read = reader.read(buffer);
+            }
+        } finally {
+            reader.close();
+        }
+        return output.toString();
+    }
+}
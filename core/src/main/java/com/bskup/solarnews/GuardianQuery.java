@@ -0,0 +1,74 @@
+package com.bskup.solarnews;
+
+import java.nio.charset.Charset;
+
+/**
+ * Builds Guardian search request urls. Kept free of android.net.Uri so the same query
+ * the app sends can be built and replayed on a plain JVM.
+ */
+
+public class GuardianQuery {
+
+    // Constant request URL
+    public static final String GUARDIAN_REQUEST_URL = "http://content.guardianapis.com/search";
+    // Search term the app is built around
+    public static final String DEFAULT_SEARCH_TERM = "solar";
+    // Api key for the Guardian's public test tier
+    public static final String DEFAULT_API_KEY = "test";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    // Characters Uri.encode leaves alone besides letters and digits
+    private static final String UNRESERVED_CHARS = "_-!.~'()*";
+
+    // Private constructor because this class only holds static methods
+    private GuardianQuery() {
+    }
+
+    // Build the search url for the given page size and order, the same way
+    // MainActivity used to with Uri.Builder
+    public static String buildSearchUrl(String pageSize, String orderBy) {
+        StringBuilder url = new StringBuilder(GUARDIAN_REQUEST_URL);
+        appendQueryParameter(url, "q", DEFAULT_SEARCH_TERM);
+        appendQueryParameter(url, "page-size", pageSize);
+        appendQueryParameter(url, "order-by", orderBy);
+        appendQueryParameter(url, "api-key", DEFAULT_API_KEY);
+        return url.toString();
+    }
+
+    // Append an encoded key=value pair, starting the query string if needed
+    private static void appendQueryParameter(StringBuilder url, String key, String value) {
+        url.append(url.indexOf("?") < 0 ? '?' : '&')
+                .append(encode(key))
+                .append('=')
+                .append(encode(value));
+    }
+
+    // Percent encode the way Uri.encode does: ASCII letters, digits and _-!.~'()* are kept,
+    // every other char is encoded as UTF-8 bytes in upper case hex, so spaces become %20
+    static String encode(String value) {
+        StringBuilder encoded = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!needsEncoding(c)) {
+                encoded.append(c);
+                continue;
+            }
+            // Encode the whole run of chars that need it at once, so surrogate pairs stay together
+            int end = i + 1;
+            while (end < value.length() && needsEncoding(value.charAt(end))) {
+                end++;
+            }
+            for (byte b : value.substring(i, end).getBytes(UTF_8)) {
+                encoded.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+            }
+            i = end - 1;
+        }
+        return encoded.toString();
+    }
+
+    private static boolean needsEncoding(char c) {
+        return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || UNRESERVED_CHARS.indexOf(c) >= 0);
+    }
+}
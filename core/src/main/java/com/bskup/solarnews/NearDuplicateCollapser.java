@@ -0,0 +1,237 @@
+package com.bskup.solarnews;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collapses stories with near identical titles, like live blog updates and reworded
+ * reposts, into a single story that carries the others as duplicates.
+ *
+ * Each title is normalised and split into overlapping character shingles, which are
+ * reduced to a fixed size MinHash signature. Signatures are split into bands and indexed
+ * by band (locality sensitive hashing), so finding a title's near duplicates only looks at
+ * the few clusters sharing a band with it rather than every story seen so far. The index
+ * is kept between calls, so the same story in a later load lands in the same cluster.
+ * Titles too short to make a single shingle, including missing ones, are never collapsed.
+ */
+
+public class NearDuplicateCollapser {
+
+    // Signature length, split into BANDS bands of ROWS_PER_BAND values each
+    private static final int NUM_HASHES = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS_PER_BAND = NUM_HASHES / BANDS;
+    // Estimated Jaccard similarity of shingle sets above which titles count as duplicates
+    private static final double SIMILARITY_THRESHOLD = 0.6;
+    // Length of the character shingles titles are split into
+    private static final int SHINGLE_LENGTH = 4;
+    // The index starts over once it holds this many clusters, so it can't grow forever
+    static final int MAX_CLUSTERS = 5000;
+    // Clusters the signature array has room for before it first grows
+    private static final int INITIAL_CLUSTERS = 64;
+    // Rough heap size of one cluster: its signature plus one index entry per band
+    private static final long CLUSTER_SIZE_BYTES = NUM_HASHES * 4 + BANDS * 64;
+
+    // One seed per hash function, fixed so signatures are the same on every run
+    private static final long[] SEEDS = new long[NUM_HASHES];
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(seed);
+        }
+    }
+
+    // Band key to every cluster indexed under it, in the order they were added
+    private Map<Long, int[]> mBandIndex = new HashMap<>();
+    // Signature of each cluster's first story, NUM_HASHES values per cluster
+    private int[] mClusterSignatures = new int[NUM_HASHES * INITIAL_CLUSTERS];
+    private int mClusterCount;
+    // Buffers reused between titles, only touched while holding this object's lock
+    private final int[] mSignature = new int[NUM_HASHES];
+    private char[] mNormalisedTitle = new char[128];
+
+    // Return the stories with near duplicates folded into the first story of each group,
+    // keeping the order of those first stories. Duplicates are added to that story with
+    // NewsStory.addDuplicate.
+    public synchronized List<NewsStory> collapse(List<NewsStory> newsStoryList) {
+        // Start over before the index gets too big, rather than part way through,
+        // so cluster numbers stay unique within one call
+        if (mClusterCount + newsStoryList.size() > MAX_CLUSTERS) {
+            clear();
+        }
+
+        Map<Integer, NewsStory> firstStoryByCluster = new LinkedHashMap<>();
+        for (int i = 0; i < newsStoryList.size(); i++) {
+            NewsStory newsStory = newsStoryList.get(i);
+            int cluster = findOrAddCluster(newsStory.getWebTitle());
+            if (cluster < 0) {
+                // Too short to compare, keep it as it is under a key no cluster uses
+                firstStoryByCluster.put(-1 - i, newsStory);
+                continue;
+            }
+            NewsStory firstStory = firstStoryByCluster.get(cluster);
+            if (firstStory == null) {
+                firstStoryByCluster.put(cluster, newsStory);
+            } else {
+                firstStory.addDuplicate(newsStory);
+            }
+        }
+        return new ArrayList<>(firstStoryByCluster.values());
+    }
+
+    // Forget every indexed title. The map and signature array are replaced rather than
+    // emptied, since both keep their grown capacity otherwise and the memory isn't freed.
+    public synchronized void clear() {
+        mBandIndex = new HashMap<>();
+        mClusterSignatures = new int[NUM_HASHES * INITIAL_CLUSTERS];
+        mClusterCount = 0;
+    }
+
+    // Number of clusters indexed so far
+    public synchronized int getClusterCount() {
+        return mClusterCount;
+    }
+
+    // Rough number of bytes the index takes up on the heap, for sizing caches
+    public synchronized long estimateSizeBytes() {
+        return mClusterCount * CLUSTER_SIZE_BYTES;
+    }
+
+    // Find the cluster a title belongs to, starting a new one if it isn't near any.
+    // Returns -1 for titles too short to have a signature.
+    private int findOrAddCluster(String title) {
+        if (!computeSignature(title)) {
+            return -1;
+        }
+
+        // Look for an existing cluster sharing a band, and check it's really similar
+        for (int band = 0; band < BANDS; band++) {
+            int[] candidates = mBandIndex.get(bandKey(band));
+            if (candidates == null) {
+                continue;
+            }
+            for (int candidate : candidates) {
+                if (similarity(candidate) >= SIMILARITY_THRESHOLD) {
+                    return candidate;
+                }
+            }
+        }
+
+        int cluster = mClusterCount++;
+        if (mClusterSignatures.length < mClusterCount * NUM_HASHES) {
+            mClusterSignatures = Arrays.copyOf(mClusterSignatures, mClusterSignatures.length * 2);
+        }
+        System.arraycopy(mSignature, 0, mClusterSignatures, cluster * NUM_HASHES, NUM_HASHES);
+        // Buckets rarely hold more than a couple of clusters, so grow them one at a time
+        for (int band = 0; band < BANDS; band++) {
+            Long key = bandKey(band);
+            int[] clusters = mBandIndex.get(key);
+            if (clusters == null) {
+                clusters = new int[1];
+            } else {
+                clusters = Arrays.copyOf(clusters, clusters.length + 1);
+            }
+            clusters[clusters.length - 1] = cluster;
+            mBandIndex.put(key, clusters);
+        }
+        return cluster;
+    }
+
+    // Fill mSignature with the MinHash signature of a title's shingles. Returns false for
+    // titles shorter than one shingle, which would all get the same signature otherwise.
+    private boolean computeSignature(String title) {
+        int length = normalise(title);
+        if (length < SHINGLE_LENGTH) {
+            return false;
+        }
+        Arrays.fill(mSignature, Integer.MAX_VALUE);
+        for (int start = 0; start + SHINGLE_LENGTH <= length; start++) {
+            addShingle(shingleHash(start, SHINGLE_LENGTH));
+        }
+        return true;
+    }
+
+    // Lower each signature value to this shingle's hash under that hash function if smaller
+    private void addShingle(int shingleHash) {
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int hash = (int) (mix(shingleHash ^ SEEDS[i]) >>> 32);
+            if (hash < mSignature[i]) {
+                mSignature[i] = hash;
+            }
+        }
+    }
+
+    // Hash of the normalised title chars from start, without making a substring
+    private int shingleHash(int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + mNormalisedTitle[i];
+        }
+        return hash;
+    }
+
+    // Copy the title into mNormalisedTitle in lower case, with every run of punctuation
+    // and spaces squashed to a single space, and return its length
+    private int normalise(String title) {
+        if (title == null) {
+            return 0;
+        }
+        if (mNormalisedTitle.length < title.length()) {
+            mNormalisedTitle = new char[title.length()];
+        }
+        int length = 0;
+        boolean lastWasSpace = true;
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                mNormalisedTitle[length++] = Character.toLowerCase(c);
+                lastWasSpace = false;
+            } else if (!lastWasSpace) {
+                mNormalisedTitle[length++] = ' ';
+                lastWasSpace = true;
+            }
+        }
+        if (length > 0 && lastWasSpace) {
+            length--;
+        }
+        return length;
+    }
+
+    // Key for one band of mSignature, with the band number mixed in so bands don't collide
+    private Long bandKey(int band) {
+        long key = band;
+        for (int i = band * ROWS_PER_BAND; i < (band + 1) * ROWS_PER_BAND; i++) {
+            key = key * 0x100000001B3L ^ (mSignature[i] & 0xFFFFFFFFL);
+        }
+        return mix(key);
+    }
+
+    // Fraction of signature values mSignature shares with a cluster's signature,
+    // which estimates the Jaccard similarity of their shingle sets
+    private double similarity(int cluster) {
+        int offset = cluster * NUM_HASHES;
+        int matches = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (mSignature[i] == mClusterSignatures[offset + i]) {
+                matches++;
+            }
+        }
+        return (double) matches / NUM_HASHES;
+    }
+
+    // 64 bit finaliser from MurmurHash3, spreads every input bit over the whole output
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,73 @@
+package com.bskup.solarnews;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created on 12/7/2016.
+ */
+
+public class NewsStory {
+
+    // NewsStory section name
+    private String mSectionName;
+    // NewsStory web title
+    private String mWebTitle;
+    // NewsStory web url address String
+    private String mWebUrl;
+    // NewsStory publication time in milliseconds since the epoch, 0 if unknown.
+    // Only the list formats it for display, and only for the rows it binds.
+    private long mPublicationTimeMillis;
+    // Near duplicate stories collapsed into this one, empty if none
+    private List<NewsStory> mDuplicates = Collections.emptyList();
+
+    // Constructor method
+    public NewsStory (String sectionName, String webTitle, String webUrl, long publicationTimeMillis) {
+        mSectionName = sectionName;
+        mWebTitle = webTitle;
+        mWebUrl = webUrl;
+        mPublicationTimeMillis = publicationTimeMillis;
+    }
+
+    // Getter for section name
+    public String getSectionName() { return mSectionName; }
+
+    // Getter for web title
+    public String getWebTitle() {
+        return mWebTitle;
+    }
+
+    // Getter for web url String
+    public String getWebUrl() { return mWebUrl; }
+
+    // Getter for publication time in milliseconds
+    public long getPublicationTimeMillis() { return mPublicationTimeMillis; }
+
+    // Getter for near duplicate stories collapsed into this one
+    public List<NewsStory> getDuplicates() { return mDuplicates; }
+
+    // Collapse a near duplicate story into this one
+    public void addDuplicate(NewsStory duplicate) {
+        if (mDuplicates.isEmpty()) {
+            mDuplicates = new ArrayList<>();
+        }
+        mDuplicates.add(duplicate);
+    }
+
+    // Rough number of bytes this story takes up on the heap, for sizing caches.
+    // Counts the object itself plus each String's header and two bytes per char.
+    public long estimateSizeBytes() {
+        long size = 48 + estimateSizeBytes(mSectionName) + estimateSizeBytes(mWebTitle)
+                + estimateSizeBytes(mWebUrl);
+        for (NewsStory duplicate : mDuplicates) {
+            size += duplicate.estimateSizeBytes();
+        }
+        return size;
+    }
+
+    private static long estimateSizeBytes(String string) {
+        return string == null ? 0 : 40 + 2L * string.length();
+    }
+
+}
@@ -1,8 +1,5 @@
 package com.bskup.solarnews;
 
-import android.net.Uri;
-import android.util.Log;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -21,44 +18,57 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 public class QueryUtils {
 
     // Tag for log messages
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
+    // Plain java logger so this class runs off Android too. Android only routes INFO and
+    // above to logcat, so messages worth seeing there can't use FINE.
+    private static final Logger LOGGER = Logger.getLogger(LOG_TAG);
 
     // Private constructor because an object instance of query utils is never needed
     // This class only holds static variables and methods
     private QueryUtils() {
     }
 
-    // Return list of NewsStory objects that has been built up by parsing a JSON response
-    public static List<NewsStory> extractNewsStories(String requestUrl) {
-        // Temp log message
-        Log.v(LOG_TAG, "extractNewsStories called from QueryUtils");
-
+    // Fetch the raw JSON response for the given request url, or an empty String if
+    // the request fails. This is the network half of a load.
+    public static String fetchNewsJson(String requestUrl) {
         // Create URL
         URL passedInRequestUrl = createUrl(requestUrl);
 
+        String jsonResponseString = "";
+        try {
+            jsonResponseString = makeHttpRequest(passedInRequestUrl);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error closing input stream", e);
+        }
+        return jsonResponseString;
+    }
+
+    // Parse a JSON response into a list of NewsStory objects. This doesn't touch the
+    // network, and gives an empty list for an empty or malformed response.
+    public static List<NewsStory> parseNewsStories(String jsonResponseString) {
         // Create an empty List that we can start adding NewsStory objects to
         List<NewsStory> newsStories = new ArrayList<>();
 
-        // Date format to match the format we receive the date in from the server
+        // Date format to match the format we receive the date in from the server. Dates are
+        // only parsed here, the list formats them for display when a row is bound.
         SimpleDateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-        // Date formats to convert to and use in our ui
-        SimpleDateFormat outputFormatDate = new SimpleDateFormat("MMMM dd, yyyy", Locale.US);
-        SimpleDateFormat outputFormatTime = new SimpleDateFormat("h:mma", Locale.US);
+        // The trailing Z means the server's times are UTC, not the device's time zone
+        inputFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
 
         // Try to parse the json response. If there's a problem with the way the JSON
         // is formatted, a JSONException exception object will be thrown.
         // Catch the exception so the app doesn't crash, and print the error message to the logs.
         try {
-            // Parse the response given by the SAMPLE_JSON_RESPONSE string and
-            // build up a list of NewsStory objects with the corresponding data.
-            String jsonResponseString = makeHttpRequest(passedInRequestUrl);
+            // Parse the response and build up a list of NewsStory objects with the corresponding data.
             JSONObject jsonRootObject = new JSONObject(jsonResponseString);
-
             JSONObject jsonObjectResponse = jsonRootObject.optJSONObject("response");
             JSONArray jsonArrayResults = jsonObjectResponse.optJSONArray("results");
             // If json array of results exists, do the rest of this
@@ -77,41 +87,47 @@ public class QueryUtils {
                     // Get json string webUrl from the current result
                     String webUrlString = currentJsonObject.optString("webUrl");
 
-                    // Parse date and convert to our preferred format
+                    // Parse date, keeping the raw time for filtering, grouping and display
                     Date inputDate = null;
                     try {
                         inputDate = inputFormat.parse(webPublicationDate);
                     } catch (ParseException e) {
                         e.printStackTrace();
                     }
-                    String outputDateString = outputFormatDate.format(inputDate);
-                    String outputTimeString = outputFormatTime.format(inputDate);
+                    long publicationTimeMillis = inputDate != null ? inputDate.getTime() : 0;
 
                     // Add new NewsStory to list using data obtained during
                     // this iteration of the loop
-                    newsStories.add(new NewsStory(sectionName, webTitle, outputDateString, outputTimeString, webUrlString));
+                    newsStories.add(new NewsStory(sectionName, webTitle, webUrlString, publicationTimeMillis));
                 }
             }
         } catch (JSONException e) {
             // If an error is thrown when executing any of the above statements in the "try" block,
             // catch the exception here, so the app doesn't crash. Print a log message
             // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the Guardian JSON results", e);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing input stream", e);
+            LOGGER.log(Level.SEVERE, "Problem parsing the Guardian JSON results", e);
         }
 
         // Return the list of NewsStory objects
         return newsStories;
     }
 
+    // Turn a JSON response into the stories to show: parse it, let the throughput estimator
+    // know how big each story was, and fold near duplicates together. This is the whole CPU
+    // half of a load, shared by NewsPipeline and BatchFetcher so both run the same code.
+    public static List<NewsStory> processNewsJson(String jsonResponse, NearDuplicateCollapser collapser) {
+        List<NewsStory> newsStoryList = parseNewsStories(jsonResponse);
+        ThroughputEstimator.recordStoriesParsed(jsonResponse.length(), newsStoryList.size());
+        return collapser.collapse(newsStoryList);
+    }
+
     // Returns new URL object from the given string URL
     public static URL createUrl(String stringUrl) {
         URL url = null;
         try {
             url = new URL(stringUrl);
         } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Error with creating URL ", e);
+            LOGGER.log(Level.SEVERE, "Error with creating URL ", e);
         }
         return url;
     }
@@ -128,6 +144,8 @@ public class QueryUtils {
         HttpURLConnection urlConnection = null;
         InputStream inputStream = null;
         try {
+            // Start timing so the throughput estimator can learn how fast this network is
+            long startTime = System.currentTimeMillis();
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setReadTimeout(20000 /* milliseconds */);
             urlConnection.setConnectTimeout(15000 /* milliseconds */);
@@ -137,13 +155,19 @@ public class QueryUtils {
             // If the request was successful (response code 200),
             // then read the input stream and parse the response.
             if (urlConnection.getResponseCode() == 200) {
+                long responseTime = System.currentTimeMillis();
                 inputStream = urlConnection.getInputStream();
                 jsonResponse = readFromStream(inputStream);
+                long readTime = System.currentTimeMillis();
+                // Response is almost all ASCII, so its length in chars is close enough to bytes
+                ThroughputEstimator.recordResponse(responseTime - startTime, readTime - responseTime, jsonResponse.length());
+                // Temp log message
+                LOGGER.info("makeHttpRequest measured " + ThroughputEstimator.describe());
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                LOGGER.severe("Error response code: " + urlConnection.getResponseCode());
             }
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the Google Books JSON results.", e);
+            LOGGER.log(Level.SEVERE, "Problem retrieving the Google Books JSON results.", e);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
@@ -0,0 +1,144 @@
+package com.bskup.solarnews;
+
+/**
+ * Keeps a running estimate of network latency and download throughput, measured in
+ * QueryUtils.makeHttpRequest, and uses it to pick a page size that should be downloaded
+ * within a target time to first content.
+ */
+
+public class ThroughputEstimator {
+
+    // Time we'd like the first page of results to take to arrive, in milliseconds
+    public static final long TARGET_TIME_TO_FIRST_CONTENT_MS = 1500;
+    // Time budget for background prefetching of further pages, in milliseconds
+    public static final long PREFETCH_BUDGET_MS = 5000;
+    // Smallest page size we'll ever ask for, so slow networks still show something useful
+    public static final int MIN_PAGE_SIZE = 5;
+    // Largest page size the Guardian API accepts
+    public static final int MAX_PAGE_SIZE = 200;
+    // Most pages we'll ever suggest prefetching ahead
+    public static final int MAX_PREFETCH_DEPTH = 3;
+
+    // Weight given to each new sample in the moving averages
+    private static final double SMOOTHING_FACTOR = 0.3;
+    // Starting guesses used before any response has been measured (a slow mobile connection)
+    private static final double DEFAULT_LATENCY_MS = 600;
+    private static final double DEFAULT_BYTES_PER_SECOND = 20 * 1024;
+    // Starting guess for the size of a single result in the JSON response, and the
+    // fixed size of the response envelope around the results array
+    private static final double DEFAULT_BYTES_PER_STORY = 700;
+    private static final double ENVELOPE_BYTES = 300;
+
+    // Moving averages, only touched while holding the class lock
+    private static double sLatencyMs = DEFAULT_LATENCY_MS;
+    private static double sBytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+    private static double sBytesPerStory = DEFAULT_BYTES_PER_STORY;
+    private static int sSampleCount = 0;
+    // Samples that measured throughput, which skips responses too small to time
+    private static int sThroughputSampleCount = 0;
+    // Most recent choices, kept around for debugging
+    private static int sLastPageSize = 0;
+    private static int sLastPrefetchDepth = 0;
+
+    // Private constructor because this class only holds static state and methods
+    private ThroughputEstimator() {
+    }
+
+    // Record one HTTP response: time until the response code arrived, time spent reading
+    // the body, and the size of the body
+    public static synchronized void recordResponse(long latencyMs, long transferMs, long bytes) {
+        if (sSampleCount == 0) {
+            sLatencyMs = latencyMs;
+        } else {
+            sLatencyMs = smooth(sLatencyMs, latencyMs);
+        }
+        // Tiny bodies read from a buffer say nothing about the link speed, skip them
+        if (bytes > 0 && transferMs > 0) {
+            double bytesPerSecond = bytes * 1000.0 / transferMs;
+            // The first real measurement replaces the starting guess rather than being
+            // averaged with it, even if earlier responses were too small to time
+            if (sThroughputSampleCount == 0) {
+                sBytesPerSecond = bytesPerSecond;
+            } else {
+                sBytesPerSecond = smooth(sBytesPerSecond, bytesPerSecond);
+            }
+            sThroughputSampleCount++;
+        }
+        sSampleCount++;
+    }
+
+    // Record how many stories were parsed out of a response of the given size. The size is
+    // passed in rather than remembered from recordResponse, since responses on different
+    // threads can finish in any order.
+    public static synchronized void recordStoriesParsed(long responseBytes, int storyCount) {
+        if (storyCount <= 0 || responseBytes <= ENVELOPE_BYTES) {
+            return;
+        }
+        double bytesPerStory = (responseBytes - ENVELOPE_BYTES) / storyCount;
+        sBytesPerStory = smooth(sBytesPerStory, bytesPerStory);
+    }
+
+    // Choose a page size that should arrive within TARGET_TIME_TO_FIRST_CONTENT_MS,
+    // never going over the user's own page size preference
+    public static synchronized int choosePageSize(int userPageSizeCap) {
+        int cap = Math.max(1, Math.min(userPageSizeCap, MAX_PAGE_SIZE));
+        double transferBudgetMs = TARGET_TIME_TO_FIRST_CONTENT_MS - sLatencyMs;
+        int pageSize = storiesWithin(transferBudgetMs);
+        pageSize = Math.max(pageSize, MIN_PAGE_SIZE);
+        sLastPageSize = Math.min(pageSize, cap);
+
+        // Prefetch however many further pages of the same size fit in the prefetch budget
+        double pageMs = sLatencyMs + (ENVELOPE_BYTES + sLastPageSize * sBytesPerStory) * 1000.0 / sBytesPerSecond;
+        int prefetchDepth = (int) (PREFETCH_BUDGET_MS / pageMs);
+        sLastPrefetchDepth = Math.max(0, Math.min(prefetchDepth, MAX_PREFETCH_DEPTH));
+
+        return sLastPageSize;
+    }
+
+    // Number of stories that can be downloaded in the given time at the current throughput
+    private static int storiesWithin(double transferBudgetMs) {
+        if (transferBudgetMs <= 0) {
+            return 0;
+        }
+        double bytes = transferBudgetMs * sBytesPerSecond / 1000.0 - ENVELOPE_BYTES;
+        return (int) Math.max(0, bytes / sBytesPerStory);
+    }
+
+    // Forget every sample and go back to the starting guesses, for tests
+    static synchronized void reset() {
+        sLatencyMs = DEFAULT_LATENCY_MS;
+        sBytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+        sBytesPerStory = DEFAULT_BYTES_PER_STORY;
+        sSampleCount = 0;
+        sThroughputSampleCount = 0;
+        sLastPageSize = 0;
+        sLastPrefetchDepth = 0;
+    }
+
+    private static double smooth(double average, double sample) {
+        return average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    // Getters for debugging
+    public static synchronized double getLatencyMs() { return sLatencyMs; }
+
+    public static synchronized double getBytesPerSecond() { return sBytesPerSecond; }
+
+    public static synchronized double getBytesPerStory() { return sBytesPerStory; }
+
+    public static synchronized int getSampleCount() { return sSampleCount; }
+
+    public static synchronized int getLastPageSize() { return sLastPageSize; }
+
+    public static synchronized int getLastPrefetchDepth() { return sLastPrefetchDepth; }
+
+    // One line summary of the current estimate, for log messages
+    public static synchronized String describe() {
+        return "samples: " + sSampleCount
+                + ", latency: " + Math.round(sLatencyMs) + "ms"
+                + ", throughput: " + Math.round(sBytesPerSecond / 1024) + "KB/s"
+                + ", bytes per story: " + Math.round(sBytesPerStory)
+                + ", page size: " + sLastPageSize
+                + ", prefetch depth: " + sLastPrefetchDepth;
+    }
+}
@@ -0,0 +1,46 @@
+package com.bskup.solarnews;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks GuardianQuery builds the same urls MainActivity used to build with Uri.Builder.
+ * The expected strings are what Uri.Builder.appendQueryParameter produces, which encodes
+ * values with Uri.encode.
+ */
+public class GuardianQueryTest {
+
+    @Test
+    public void buildSearchUrl_matchesUriBuilder() throws Exception {
+        assertEquals("http://content.guardianapis.com/search?q=solar&page-size=10&order-by=newest&api-key=test",
+                GuardianQuery.buildSearchUrl("10", "newest"));
+        assertEquals("http://content.guardianapis.com/search?q=solar&page-size=200&order-by=relevance&api-key=test",
+                GuardianQuery.buildSearchUrl("200", "relevance"));
+    }
+
+    @Test
+    public void buildSearchUrl_encodesUserValues() throws Exception {
+        // The page size is typed by the user, so it can hold anything
+        assertEquals("http://content.guardianapis.com/search?q=solar&page-size=1%200%26x%3Dy&order-by=oldest&api-key=test",
+                GuardianQuery.buildSearchUrl("1 0&x=y", "oldest"));
+    }
+
+    @Test
+    public void encode_keepsUriUnreservedChars() throws Exception {
+        assertEquals("azAZ09_-!.~'()*", GuardianQuery.encode("azAZ09_-!.~'()*"));
+    }
+
+    @Test
+    public void encode_percentEncodesEverythingElse() throws Exception {
+        assertEquals("a%20b", GuardianQuery.encode("a b"));
+        assertEquals("%2B%26%3D%3F%2F%23%25%22%3C%3E", GuardianQuery.encode("+&=?/#%\"<>"));
+        assertEquals("caf%C3%A9", GuardianQuery.encode("caf\u00e9"));
+        assertEquals("%E2%98%80%20%F0%9F%8C%9E", GuardianQuery.encode("\u2600 \ud83c\udf1e"));
+    }
+
+    @Test
+    public void encode_emptyValue() throws Exception {
+        assertEquals("", GuardianQuery.encode(""));
+    }
+}
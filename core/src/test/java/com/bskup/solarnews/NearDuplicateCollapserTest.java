@@ -0,0 +1,189 @@
+package com.bskup.solarnews;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks NearDuplicateCollapser folds reworded headlines together and leaves different
+ * stories alone, keeps its index between calls, and stays well under a millisecond per
+ * story with thousands of stories already indexed.
+ */
+public class NearDuplicateCollapserTest {
+
+    // Stories already indexed when timing, and stories timed on top of them
+    private static final int CORPUS_SIZE = 4000;
+    private static final int TIMED_SIZE = 1000;
+    // Most time a story may take to collapse against the corpus
+    private static final double TIME_PER_STORY_BUDGET_MS = 1;
+
+    private NearDuplicateCollapser mCollapser;
+
+    @Before
+    public void setUp() {
+        mCollapser = new NearDuplicateCollapser();
+    }
+
+    @Test
+    public void similarTitles_collapseIntoFirstStory() throws Exception {
+        List<NewsStory> collapsed = mCollapser.collapse(stories(
+                "Solar eclipse 2017: live updates from across the US",
+                "Solar eclipse 2017 - live updates from across the US!",
+                "Solar eclipse 2017: live updates from across the USA"));
+
+        assertEquals(1, collapsed.size());
+        assertEquals("Solar eclipse 2017: live updates from across the US", collapsed.get(0).getWebTitle());
+        assertEquals(2, collapsed.get(0).getDuplicates().size());
+    }
+
+    @Test
+    public void differentTitles_areKept() throws Exception {
+        List<NewsStory> collapsed = mCollapser.collapse(stories(
+                "Solar eclipse 2017: live updates from across the US",
+                "UK solar subsidies to be cut by 65% under government plans",
+                "Tesla unveils solar roof tiles"));
+
+        assertEquals(3, collapsed.size());
+        for (NewsStory newsStory : collapsed) {
+            assertTrue(newsStory.getDuplicates().isEmpty());
+        }
+    }
+
+    @Test
+    public void collapse_keepsOrderOfFirstStories() throws Exception {
+        List<NewsStory> collapsed = mCollapser.collapse(stories(
+                "Tesla unveils solar roof tiles",
+                "UK solar subsidies to be cut by 65% under government plans",
+                "Tesla unveils solar roof tiles, again",
+                "Solar farms overtake coal in Britain"));
+
+        assertEquals(Arrays.asList("Tesla unveils solar roof tiles",
+                "UK solar subsidies to be cut by 65% under government plans",
+                "Solar farms overtake coal in Britain"), titles(collapsed));
+    }
+
+    @Test
+    public void missingAndShortTitles_areNeverCollapsed() throws Exception {
+        List<NewsStory> collapsed = mCollapser.collapse(stories("", "", null, "Sun", "Sun", "!!"));
+
+        assertEquals(6, collapsed.size());
+        assertEquals(0, mCollapser.getClusterCount());
+    }
+
+    @Test
+    public void sharedBucket_laterClusterStillFound() throws Exception {
+        // Two different stories on the same subject, so they share some bands but not a cluster
+        mCollapser.collapse(stories(
+                "India plans the world's largest solar park as it happened",
+                "India plans the world's largest solar park says minister"));
+        assertEquals(2, mCollapser.getClusterCount());
+
+        // Every band this shares with the second story is also held by the first one,
+        // so it's only found if a bucket keeps all the clusters hashed to it
+        mCollapser.collapse(stories("India plans the world's largest solar park says minister live updates"));
+
+        assertEquals(2, mCollapser.getClusterCount());
+    }
+
+    @Test
+    public void index_persistsAcrossCalls() throws Exception {
+        mCollapser.collapse(stories("Solar eclipse 2017: live updates from across the US"));
+        List<NewsStory> collapsed = mCollapser.collapse(stories(
+                "Solar eclipse 2017 - live updates from across the US",
+                "Tesla unveils solar roof tiles"));
+
+        // The reworded title joins the first call's cluster rather than starting a new one
+        assertEquals(2, mCollapser.getClusterCount());
+        // Each call still returns its own stories, so nothing from the first call is shown again
+        assertEquals(2, collapsed.size());
+        assertTrue(collapsed.get(0).getDuplicates().isEmpty());
+    }
+
+    @Test
+    public void clear_forgetsIndexedTitles() throws Exception {
+        mCollapser.collapse(stories("Solar eclipse 2017: live updates from across the US"));
+        assertTrue(mCollapser.estimateSizeBytes() > 0);
+
+        mCollapser.clear();
+
+        assertEquals(0, mCollapser.getClusterCount());
+        assertEquals(0, mCollapser.estimateSizeBytes());
+    }
+
+    @Test
+    public void fullIndex_startsOverBeforeCollapsing() throws Exception {
+        Random random = new Random(42);
+        mCollapser.collapse(randomStories(random, NearDuplicateCollapser.MAX_CLUSTERS));
+        assertEquals(NearDuplicateCollapser.MAX_CLUSTERS, mCollapser.getClusterCount());
+
+        List<NewsStory> collapsed = mCollapser.collapse(stories(
+                "Solar eclipse 2017: live updates from across the US",
+                "Solar eclipse 2017 - live updates from across the US"));
+
+        // Cleared first, so the new stories still collapse with each other
+        assertEquals(1, mCollapser.getClusterCount());
+        assertEquals(1, collapsed.size());
+    }
+
+    @Test
+    public void timePerStory_staysUnderBudgetWithLargeCorpus() throws Exception {
+        Random random = new Random(7);
+        mCollapser.collapse(randomStories(random, CORPUS_SIZE));
+        List<NewsStory> timedStories = randomStories(random, TIMED_SIZE);
+
+        long startTime = System.nanoTime();
+        mCollapser.collapse(timedStories);
+        double timePerStoryMs = (System.nanoTime() - startTime) / 1e6 / TIMED_SIZE;
+
+        System.out.println(String.format(Locale.US, "collapse time per story with %d indexed: %.4fms",
+                CORPUS_SIZE, timePerStoryMs));
+        assertTrue("collapse took " + timePerStoryMs + "ms per story", timePerStoryMs < TIME_PER_STORY_BUDGET_MS);
+    }
+
+    private static List<NewsStory> stories(String... titles) {
+        List<NewsStory> newsStoryList = new ArrayList<>();
+        for (int i = 0; i < titles.length; i++) {
+            newsStoryList.add(story(titles[i], i));
+        }
+        return newsStoryList;
+    }
+
+    // Headline length stories made of random words, so none of them are near each other
+    private static List<NewsStory> randomStories(Random random, int count) {
+        List<NewsStory> newsStoryList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder();
+            for (int word = 0; word < 8; word++) {
+                if (word > 0) {
+                    title.append(' ');
+                }
+                int length = 3 + random.nextInt(6);
+                for (int c = 0; c < length; c++) {
+                    title.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            newsStoryList.add(story(title.toString(), i));
+        }
+        return newsStoryList;
+    }
+
+    private static NewsStory story(String title, int index) {
+        return new NewsStory("Environment", title,
+                "https://www.theguardian.com/environment/story-" + index, 1480550400000L);
+    }
+
+    private static List<String> titles(List<NewsStory> newsStoryList) {
+        List<String> titles = new ArrayList<>();
+        for (NewsStory newsStory : newsStoryList) {
+            titles.add(newsStory.getWebTitle());
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,103 @@
+package com.bskup.solarnews;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks QueryUtils.parseNewsStories against a recorded Guardian search response, trimmed
+ * to a few results, including ones with a missing section, a bad date and no date at all.
+ */
+public class QueryUtilsTest {
+
+    // Recorded response, under src/test/resources
+    private static final String RECORDED_RESPONSE = "/search_response.json";
+
+    // 2017-08-21T17:32:11Z and 2017-08-21T09:05:00Z in milliseconds since the epoch
+    private static final long FIRST_PUBLICATION_TIME_MILLIS = 1503336731000L;
+    private static final long SECOND_PUBLICATION_TIME_MILLIS = 1503306300000L;
+
+    @Test
+    public void parseNewsStories_readsRecordedResponse() throws Exception {
+        List<NewsStory> newsStories = QueryUtils.parseNewsStories(readResource(RECORDED_RESPONSE));
+
+        assertEquals(4, newsStories.size());
+        NewsStory first = newsStories.get(0);
+        assertEquals("Environment", first.getSectionName());
+        assertEquals("Solar eclipse puts US power grid to the test", first.getWebTitle());
+        assertEquals("https://www.theguardian.com/environment/2017/aug/21/solar-eclipse-power-grid",
+                first.getWebUrl());
+        assertEquals(FIRST_PUBLICATION_TIME_MILLIS, first.getPublicationTimeMillis());
+        assertTrue(first.getDuplicates().isEmpty());
+
+        NewsStory second = newsStories.get(1);
+        assertEquals("Business", second.getSectionName());
+        assertEquals("Caf\u00e9 owners turn to rooftop solar as tariffs bite", second.getWebTitle());
+        assertEquals(SECOND_PUBLICATION_TIME_MILLIS, second.getPublicationTimeMillis());
+    }
+
+    @Test
+    public void parseNewsStories_toleratesMissingFields() throws Exception {
+        List<NewsStory> newsStories = QueryUtils.parseNewsStories(readResource(RECORDED_RESPONSE));
+
+        // No section name, and a date the server shouldn't send
+        NewsStory third = newsStories.get(2);
+        assertEquals("", third.getSectionName());
+        assertEquals("Solar flare forecasting gets a boost", third.getWebTitle());
+        assertEquals(0, third.getPublicationTimeMillis());
+
+        // No date at all
+        NewsStory fourth = newsStories.get(3);
+        assertEquals("Environment", fourth.getSectionName());
+        assertEquals(0, fourth.getPublicationTimeMillis());
+    }
+
+    @Test
+    public void parseNewsStories_emptyForFailedRequest() throws Exception {
+        // fetchNewsJson returns an empty String when the request fails
+        assertTrue(QueryUtils.parseNewsStories("").isEmpty());
+    }
+
+    @Test
+    public void parseNewsStories_emptyWithoutResults() throws Exception {
+        assertTrue(QueryUtils.parseNewsStories("{\"response\":{\"status\":\"ok\",\"total\":0}}").isEmpty());
+        assertTrue(QueryUtils.parseNewsStories("{\"response\":{\"status\":\"ok\",\"results\":[]}}").isEmpty());
+    }
+
+    @Test
+    public void processNewsJson_collapsesParsedStories() throws Exception {
+        String jsonResponse = "{\"response\":{\"results\":["
+                + "{\"sectionName\":\"Science\",\"webTitle\":\"Solar eclipse 2017: live updates from across the US\"},"
+                + "{\"sectionName\":\"Science\",\"webTitle\":\"Solar eclipse 2017 - live updates from across the US!\"},"
+                + "{\"sectionName\":\"Business\",\"webTitle\":\"Tesla unveils solar roof tiles\"}]}}";
+
+        List<NewsStory> newsStories = QueryUtils.processNewsJson(jsonResponse, new NearDuplicateCollapser());
+
+        assertEquals(2, newsStories.size());
+        assertEquals(1, newsStories.get(0).getDuplicates().size());
+        assertEquals("Tesla unveils solar roof tiles", newsStories.get(1).getWebTitle());
+    }
+
+    private String readResource(String name) throws IOException {
+        InputStream inputStream = getClass().getResourceAsStream(name);
+        assertNotNull("missing test resource " + name, inputStream);
+        Reader reader = new InputStreamReader(inputStream, "UTF-8");
+        try {
+            StringBuilder output = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                output.append(buffer, 0, read);
+            }
+            return output.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
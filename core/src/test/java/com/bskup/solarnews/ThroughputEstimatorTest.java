@@ -0,0 +1,152 @@
+package com.bskup.solarnews;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ThroughputEstimator's moving averages, and that the page size and prefetch depth
+ * it picks follow the link speed and latency while keeping to the user's cap and the
+ * smallest useful page size. Expected values are worked out from the starting guess of
+ * 700 bytes per story and the 300 byte response envelope.
+ */
+public class ThroughputEstimatorTest {
+
+    private static final double DELTA = 1e-6;
+
+    @Before
+    public void setUp() {
+        ThroughputEstimator.reset();
+    }
+
+    @Test
+    public void firstSample_replacesStartingGuesses() throws Exception {
+        ThroughputEstimator.recordResponse(250, 1000, 50000);
+
+        assertEquals(1, ThroughputEstimator.getSampleCount());
+        assertEquals(250, ThroughputEstimator.getLatencyMs(), DELTA);
+        assertEquals(50000, ThroughputEstimator.getBytesPerSecond(), DELTA);
+    }
+
+    @Test
+    public void laterSamples_areSmoothed() throws Exception {
+        ThroughputEstimator.recordResponse(100, 1000, 10000);
+        ThroughputEstimator.recordResponse(200, 1000, 20000);
+
+        // Each new sample moves the average 30% of the way towards it
+        assertEquals(130, ThroughputEstimator.getLatencyMs(), DELTA);
+        assertEquals(13000, ThroughputEstimator.getBytesPerSecond(), DELTA);
+    }
+
+    @Test
+    public void untimedSample_onlyUpdatesLatency() throws Exception {
+        ThroughputEstimator.recordResponse(100, 1000, 10000);
+        ThroughputEstimator.recordResponse(300, 0, 5000);
+
+        assertEquals(2, ThroughputEstimator.getSampleCount());
+        assertEquals(160, ThroughputEstimator.getLatencyMs(), DELTA);
+        assertEquals(10000, ThroughputEstimator.getBytesPerSecond(), DELTA);
+    }
+
+    @Test
+    public void firstSampleWithoutTransferTime_keepsStartingThroughput() throws Exception {
+        double startingBytesPerSecond = ThroughputEstimator.getBytesPerSecond();
+        ThroughputEstimator.recordResponse(400, 0, 5000);
+
+        assertEquals(1, ThroughputEstimator.getSampleCount());
+        assertEquals(400, ThroughputEstimator.getLatencyMs(), DELTA);
+        assertEquals(startingBytesPerSecond, ThroughputEstimator.getBytesPerSecond(), DELTA);
+
+        // The first response that can be timed replaces the guess instead of being averaged
+        // with it, while latency is smoothed as usual
+        ThroughputEstimator.recordResponse(600, 1000, 102400);
+        assertEquals(460, ThroughputEstimator.getLatencyMs(), DELTA);
+        assertEquals(102400, ThroughputEstimator.getBytesPerSecond(), DELTA);
+    }
+
+    @Test
+    public void storiesParsed_smoothBytesPerStory() throws Exception {
+        // 20000 bytes of results over 10 stories is 2000 bytes each
+        ThroughputEstimator.recordStoriesParsed(20300, 10);
+        assertEquals(1090, ThroughputEstimator.getBytesPerStory(), DELTA);
+
+        // No stories, or a response no bigger than the envelope, tell us nothing
+        ThroughputEstimator.recordStoriesParsed(20300, 0);
+        ThroughputEstimator.recordStoriesParsed(300, 10);
+        assertEquals(1090, ThroughputEstimator.getBytesPerStory(), DELTA);
+    }
+
+    @Test
+    public void slowLink_choosesWhatFitsTheTarget() throws Exception {
+        // 10 KB/s with 300ms latency leaves 1200ms for 12288 bytes, room for 17 stories
+        ThroughputEstimator.recordResponse(300, 2000, 20480);
+
+        assertEquals(17, ThroughputEstimator.choosePageSize(200));
+        assertEquals(17, ThroughputEstimator.getLastPageSize());
+        // Each page takes about 1.5s, so three more fit in the prefetch budget
+        assertEquals(3, ThroughputEstimator.getLastPrefetchDepth());
+    }
+
+    @Test
+    public void fastLink_choosesLargestPage() throws Exception {
+        // 10 MB/s with 100ms latency
+        ThroughputEstimator.recordResponse(100, 100, 1048576);
+
+        assertEquals(ThroughputEstimator.MAX_PAGE_SIZE, ThroughputEstimator.choosePageSize(500));
+        assertEquals(ThroughputEstimator.MAX_PREFETCH_DEPTH, ThroughputEstimator.getLastPrefetchDepth());
+    }
+
+    @Test
+    public void slowerLink_neverChoosesMoreStories() throws Exception {
+        int previousPageSize = Integer.MAX_VALUE;
+        for (long bytesPerSecond = 1048576; bytesPerSecond >= 1024; bytesPerSecond /= 2) {
+            ThroughputEstimator.reset();
+            ThroughputEstimator.recordResponse(300, 1000, bytesPerSecond);
+            int pageSize = ThroughputEstimator.choosePageSize(ThroughputEstimator.MAX_PAGE_SIZE);
+            assertTrue(bytesPerSecond + " B/s chose " + pageSize, pageSize <= previousPageSize);
+            previousPageSize = pageSize;
+        }
+    }
+
+    @Test
+    public void latencyAboveTarget_choosesSmallestPage() throws Exception {
+        // 2s latency on a 1 MB/s link, nothing can arrive within 1.5s
+        ThroughputEstimator.recordResponse(2000, 100, 102400);
+
+        assertEquals(ThroughputEstimator.MIN_PAGE_SIZE, ThroughputEstimator.choosePageSize(200));
+        // Each page takes just over 2s, so two more fit in the prefetch budget
+        assertEquals(2, ThroughputEstimator.getLastPrefetchDepth());
+    }
+
+    @Test
+    public void veryLowThroughput_neverGoesBelowSmallestPage() throws Exception {
+        // 1 KB/s leaves room for a single story within the target
+        ThroughputEstimator.recordResponse(500, 10000, 10240);
+
+        assertEquals(ThroughputEstimator.MIN_PAGE_SIZE, ThroughputEstimator.choosePageSize(200));
+        // A page of the smallest size takes over 4s, so only one more fits
+        assertEquals(1, ThroughputEstimator.getLastPrefetchDepth());
+    }
+
+    @Test
+    public void userCap_isNeverExceeded() throws Exception {
+        ThroughputEstimator.recordResponse(100, 100, 1048576);
+
+        assertEquals(20, ThroughputEstimator.choosePageSize(20));
+        assertEquals(20, ThroughputEstimator.getLastPageSize());
+        // The cap wins over the smallest page size, it's what the user asked for
+        assertEquals(3, ThroughputEstimator.choosePageSize(3));
+        // But a page always has at least one story
+        assertEquals(1, ThroughputEstimator.choosePageSize(0));
+    }
+
+    @Test
+    public void userCap_appliesOnSlowLinks() throws Exception {
+        ThroughputEstimator.recordResponse(300, 2000, 20480);
+
+        assertEquals(10, ThroughputEstimator.choosePageSize(10));
+        // A page of ten takes about a second, so prefetching still goes as deep as allowed
+        assertEquals(ThroughputEstimator.MAX_PREFETCH_DEPTH, ThroughputEstimator.getLastPrefetchDepth());
+    }
+}